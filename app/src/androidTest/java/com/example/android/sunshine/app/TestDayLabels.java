@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/*
+    Checks the labels Utility gives days against the way it used to make them, checks that
+    binding a forecast's worth of rows allocates nothing once the labels are made, and that a
+    change of locale makes them again.
+ */
+public class TestDayLabels extends AndroidTestCase {
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // The rows of a forecast
+    static final int ROW_COUNT = 14;
+
+    private Locale mSavedLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSavedLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mSavedLocale);
+        DayLabels.invalidate();
+        super.tearDown();
+    }
+
+    public void testLabelsMatchOldFormatting() {
+        long now = System.currentTimeMillis();
+        for (int day = -2; day < ROW_COUNT + 2; day++) {
+            long date = now + day * DAY_IN_MILLIS;
+            String message = "Error: Day " + day + " was labelled incorrectly";
+            assertEquals(message, getDayNameTheOldWay(mContext, date),
+                    Utility.getDayName(mContext, date));
+            assertEquals(message, getFormattedMonthDayTheOldWay(date),
+                    Utility.getFormattedMonthDay(mContext, date));
+            assertEquals(message, getFriendlyDayStringTheOldWay(mContext, date, true),
+                    Utility.getFriendlyDayString(mContext, date, true));
+            assertEquals(message, getFriendlyDayStringTheOldWay(mContext, date, false),
+                    Utility.getFriendlyDayString(mContext, date, false));
+            assertEquals(message, mContext.getString(R.string.format_full_friendly_date,
+                            getDayNameTheOldWay(mContext, date),
+                            getFormattedMonthDayTheOldWay(date)),
+                    Utility.getFullFriendlyDayString(mContext, date));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testBindingAllocatesNothing() {
+        long[] dates = new long[ROW_COUNT];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            dates[i] = now + i * DAY_IN_MILLIS;
+            // Warm up, the way the first bind does
+            Utility.getFriendlyDayString(mContext, dates[i], i == 0);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Utility.getFriendlyDayString(mContext, dates[i], i == 0);
+        }
+        Debug.stopAllocCounting();
+        assertEquals("Error: Binding the rows again should not allocate", 0,
+                Debug.getThreadAllocCount());
+    }
+
+    public void testLocaleChangeRelabels() {
+        long date = System.currentTimeMillis() + 3 * DAY_IN_MILLIS;
+        Locale.setDefault(Locale.US);
+        assertEquals(new SimpleDateFormat("EEEE", Locale.US).format(date),
+                Utility.getDayName(mContext, date));
+
+        Locale.setDefault(Locale.FRANCE);
+        assertEquals("Error: The day name should follow the locale",
+                new SimpleDateFormat("EEEE", Locale.FRANCE).format(date),
+                Utility.getDayName(mContext, date));
+    }
+
+    /*
+        The labels as Utility used to make them.
+     */
+    static String getFriendlyDayStringTheOldWay(Context context, long dateInMillis,
+                                                boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    getFormattedMonthDayTheOldWay(dateInMillis)));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return getDayNameTheOldWay(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    static String getDayNameTheOldWay(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    static String getFormattedMonthDayTheOldWay(long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Loads a long forecast through ForecastLoader and checks that the rows it makes in the
+    background are what the adapter used to format while binding.  Then scrolls the list from
+    top to bottom on the main thread, one frame's worth at a time, timing each bind and each
+    frame, and logs the bind times and the frames that went over budget.
+ */
+public class TestForecastAdapter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    static final String TEST_LOCATION = "test-forecast-adapter";
+    static final int DAYS = 120;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // 60 frames a second
+    static final long FRAME_BUDGET_NANOS = 1000000000L / 60;
+    static final int MAX_FRAMES = 2000;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestRecords();
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Test");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, location);
+        assertNotNull(locationUri);
+        mLocationRowId = ContentUris.parseId(locationUri);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] weather = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            weather[i] = new ContentValues();
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + i % 10);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 + i % 10);
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            // Every kind of condition, in turn
+            weather[i].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    new int[] {211, 321, 502, 601, 741, 800, 801, 803}[i % 8]);
+        }
+        assertEquals(DAYS, mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, weather));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestRecords();
+        super.tearDown();
+    }
+
+    public void testLoaderMakesRows() throws Exception {
+        Cursor cursor = load();
+        try {
+            assertTrue("Error: The loader should deliver its rows with the cursor",
+                    cursor instanceof ForecastLoader.RowCursor);
+            List<ForecastRow> rows = ((ForecastLoader.RowCursor) cursor).getRows();
+            assertEquals(DAYS, cursor.getCount());
+            assertEquals(DAYS, rows.size());
+            assertEquals("Error: The cursor should be left before its first row",
+                    -1, cursor.getPosition());
+
+            SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ForecastRow row = rows.get(i);
+                int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+                long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+                String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+                String high = settings.formatTemperature(
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+                String low = settings.formatTemperature(
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+                String message = "Error: Row " + i + " was made incorrectly";
+
+                assertEquals(message, date, row.date);
+                assertEquals(message, Utility.getArtResourceForWeatherCondition(weatherId),
+                        row.artResource);
+                assertEquals(message, Utility.getIconResourceForWeatherCondition(weatherId),
+                        row.iconResource);
+                assertEquals(message, settings.usingLocalGraphics()
+                        ? null : Utility.getArtUrlForWeatherCondition(mContext, weatherId),
+                        row.artUrl);
+                assertEquals(message, Utility.getFriendlyDayString(mContext, date, false),
+                        row.friendlyDate);
+                assertEquals(message, Utility.getFriendlyDayString(mContext, date, true),
+                        row.friendlyDateLongToday);
+                assertEquals(message, description, row.description);
+                assertEquals(message, mContext.getString(R.string.a11y_forecast, description),
+                        row.descriptionA11y);
+                assertEquals(message, high, row.high);
+                assertEquals(message, mContext.getString(R.string.a11y_high_temp, high),
+                        row.highA11y);
+                assertEquals(message, low, row.low);
+                assertEquals(message, mContext.getString(R.string.a11y_low_temp, low),
+                        row.lowA11y);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testScrollingBenchmark() throws Exception {
+        final Cursor cursor = load();
+        final long[] bindNanos = new long[1];
+        final int[] binds = new int[1];
+        final long[] maxBindNanos = new long[1];
+        final long[] frameNanos = new long[1];
+        final int[] frames = new int[1];
+        final int[] slowFrames = new int[1];
+        final long[] maxFrameNanos = new long[1];
+
+        try {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    ContextThemeWrapper context = new ContextThemeWrapper(mContext,
+                            R.style.AppTheme_Main);
+                    final ForecastAdapter adapter = new ForecastAdapter(context,
+                            new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                                @Override
+                                public void onClick(Long date,
+                                                    ForecastAdapter.ForecastAdapterViewHolder vh) {
+                                }
+                            }, new View(context), AbsListView.CHOICE_MODE_NONE) {
+                        @Override
+                        public void onBindViewHolder(ForecastAdapterViewHolder holder,
+                                                     int position) {
+                            long start = System.nanoTime();
+                            super.onBindViewHolder(holder, position);
+                            long nanos = System.nanoTime() - start;
+                            bindNanos[0] += nanos;
+                            maxBindNanos[0] = Math.max(maxBindNanos[0], nanos);
+                            binds[0]++;
+                        }
+                    };
+                    adapter.swapCursor(cursor);
+
+                    RecyclerView recyclerView = new RecyclerView(context);
+                    final LinearLayoutManager layoutManager = new LinearLayoutManager(context);
+                    recyclerView.setLayoutManager(layoutManager);
+                    recyclerView.setAdapter(adapter);
+
+                    DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+                    int width = metrics.widthPixels;
+                    int height = metrics.heightPixels;
+                    recyclerView.measure(
+                            View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                            View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+                    recyclerView.layout(0, 0, width, height);
+                    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    Canvas canvas = new Canvas(bitmap);
+
+                    // A fling that covers a twentieth of the screen each frame
+                    int step = Math.max(1, height / 20);
+                    while (layoutManager.findLastCompletelyVisibleItemPosition()
+                            < adapter.getItemCount() - 1 && frames[0] < MAX_FRAMES) {
+                        long start = System.nanoTime();
+                        recyclerView.scrollBy(0, step);
+                        recyclerView.draw(canvas);
+                        long nanos = System.nanoTime() - start;
+                        frameNanos[0] += nanos;
+                        maxFrameNanos[0] = Math.max(maxFrameNanos[0], nanos);
+                        if (nanos > FRAME_BUDGET_NANOS) {
+                            slowFrames[0]++;
+                        }
+                        frames[0]++;
+                    }
+                    bitmap.recycle();
+
+                    assertEquals("Error: The list should have scrolled to its last row",
+                            DAYS - 1, layoutManager.findLastCompletelyVisibleItemPosition());
+                    ForecastAdapter.ForecastAdapterViewHolder last =
+                            (ForecastAdapter.ForecastAdapterViewHolder)
+                                    recyclerView.findViewHolderForAdapterPosition(DAYS - 1);
+                    ForecastRow row = ((ForecastLoader.RowCursor) cursor).getRows()
+                            .get(DAYS - 1);
+                    assertNotNull(last);
+                    assertEquals(row.friendlyDate, last.mDateView.getText().toString());
+                    assertEquals(row.high, last.mHighTempView.getText().toString());
+                }
+            });
+        } finally {
+            cursor.close();
+        }
+
+        assertTrue("Error: Every row should have been bound", binds[0] >= DAYS);
+        Log.d(LOG_TAG, binds[0] + " binds: " + bindNanos[0] / binds[0] / 1000
+                + " us each, at most " + maxBindNanos[0] / 1000 + " us");
+        Log.d(LOG_TAG, frames[0] + " frames: " + frameNanos[0] / frames[0] / 1000
+                + " us each, at most " + maxFrameNanos[0] / 1000 + " us, "
+                + slowFrames[0] + " over the " + FRAME_BUDGET_NANOS / 1000 + " us budget");
+
+        // The formatting that used to happen while binding
+        Cursor rowsCursor = query();
+        try {
+            long start = System.nanoTime();
+            List<ForecastRow> rows = ForecastRow.fromCursor(mContext, rowsCursor);
+            long nanos = System.nanoTime() - start;
+            Log.d(LOG_TAG, rows.size() + " rows made off the main thread: "
+                    + nanos / rows.size() / 1000 + " us each");
+        } finally {
+            rowsCursor.close();
+        }
+    }
+
+    /*
+        A CursorLoader has to be made on a thread with a Looper, but loads on any thread.
+     */
+    private Cursor load() throws Exception {
+        final ForecastLoader[] loader = new ForecastLoader[1];
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                loader[0] = new ForecastLoader(mContext, TEST_LOCATION,
+                        ForecastFragment.FORECAST_COLUMNS,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            }
+        });
+        Cursor cursor = loader[0].loadInBackground();
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    private Cursor query() {
+        Cursor cursor = mContext.getContentResolver().query(getWeatherUri(),
+                ForecastFragment.FORECAST_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    private static Uri getWeatherUri() {
+        return WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                TEST_LOCATION, System.currentTimeMillis());
+    }
+
+    private void deleteTestRecords() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {TEST_LOCATION}, null);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                String locationRowId = Long.toString(cursor.getLong(0));
+                mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[] {locationRowId});
+                mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[] {locationRowId});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Runs the task on the main thread and waits for it, rethrowing whatever it threw.
+     */
+    private static void runOnMainThread(final Runnable task) throws Exception {
+        final Throwable[] thrown = new Throwable[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    thrown[0] = t;
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        if (thrown[0] instanceof Error) {
+            throw (Error) thrown[0];
+        } else if (thrown[0] instanceof Exception) {
+            throw (Exception) thrown[0];
+        }
+    }
+}
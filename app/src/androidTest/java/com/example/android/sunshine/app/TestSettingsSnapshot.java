@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Changes the preferences behind SettingsSnapshot and checks that a new snapshot is loaded
+    for them, that the same snapshot is handed out while nothing it holds changes, and that
+    temperatures are formatted in the preferred units.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    static final String UNRELATED_KEY = "test-unrelated";
+
+    private String mSavedUnits;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSavedUnits = getPreferences().getString(mContext.getString(R.string.pref_units_key),
+                null);
+        mSavedLocation = getPreferences().getString(
+                mContext.getString(R.string.pref_location_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_units_key), mSavedUnits)
+                .putString(mContext.getString(R.string.pref_location_key), mSavedLocation)
+                .remove(UNRELATED_KEY)
+                .commit();
+        waitForMainThread();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferences() throws Exception {
+        setUnits(R.string.pref_units_metric);
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        assertTrue(settings.isMetric());
+        assertEquals("21\u00B0", settings.formatTemperature(21.4));
+
+        // Not one of the snapshot's preferences
+        getPreferences().edit().putBoolean(UNRELATED_KEY, true).commit();
+        waitForMainThread();
+        assertSame("Error: An unrelated preference should not reload the snapshot",
+                settings, SettingsSnapshot.get(mContext));
+
+        setUnits(R.string.pref_units_imperial);
+        settings = SettingsSnapshot.get(mContext);
+        assertFalse(settings.isMetric());
+        assertEquals("71\u00B0", settings.formatTemperature(21.4));
+
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_location_key), "London,UK")
+                .commit();
+        waitForMainThread();
+        assertEquals("London,UK", Utility.getPreferredLocation(mContext));
+        assertFalse(settings == SettingsSnapshot.get(mContext));
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setUnits(final int unitsId) {
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(unitsId))
+                .commit();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext).isMetric()
+                        == (unitsId == R.string.pref_units_metric);
+            }
+        }.run();
+    }
+
+    /*
+        Preference listeners hear about a commit made off the main thread through the main
+        thread's queue, so once a task posted after the commit has run, they have too.
+     */
+    private static void waitForMainThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
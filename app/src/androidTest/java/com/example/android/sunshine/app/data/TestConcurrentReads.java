@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Stress test: reader threads keep querying the forecast the way the loaders and widgets do,
+    while this thread writes large bulk inserts, or applies batches the way a sync does, through
+    the provider.  In WAL mode the reads should not wait for the write transactions, so the
+    slowest reads stay well below the time one write transaction takes.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    static final int READER_THREADS = 4;
+    static final int WRITES = 20;
+    static final int ROWS_PER_WRITE = 2000;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testJournalModeIsWal() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    /*
+        One write transaction of the stress test.
+     */
+    private interface Writer {
+        void write(long locationRowId, int pass) throws Exception;
+    }
+
+    public void testReadsDoNotWaitForWrites() throws Throwable {
+        assertReadsDoNotWaitFor("bulk inserts", new Writer() {
+            @Override
+            public void write(long locationRowId, int pass) {
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                        createWeatherValues(locationRowId, TestUtilities.TEST_DATE,
+                                ROWS_PER_WRITE, pass));
+            }
+        });
+    }
+
+    public void testReadsDoNotWaitForBatches() throws Throwable {
+        assertReadsDoNotWaitFor("batches", new Writer() {
+            @Override
+            public void write(long locationRowId, int pass) throws Exception {
+                // Looks up the location and then stores its forecast, like a sync
+                ArrayList<ContentProviderOperation> operations =
+                        new ArrayList<ContentProviderOperation>();
+                operations.add(ContentProviderOperation.newInsert(
+                        WeatherContract.LocationEntry.buildGetOrInsertUri())
+                        .withValues(TestUtilities.createNorthPoleLocationValues())
+                        .build());
+                for (ContentValues weatherValues : createWeatherValues(locationRowId,
+                        TestUtilities.TEST_DATE, ROWS_PER_WRITE, pass)) {
+                    operations.add(ContentProviderOperation.newUpdate(
+                            WeatherEntry.buildWeatherUpsertUri())
+                            .withValues(weatherValues)
+                            .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                            .build());
+                }
+                mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                        operations);
+            }
+        });
+    }
+
+    private void assertReadsDoNotWaitFor(String writes, Writer writer) throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        final long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        // The readers look at the 14 days after the ones being rewritten
+        long forecastStart = TestUtilities.TEST_DATE + ROWS_PER_WRITE * DAY_IN_MILLIS;
+        final Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, forecastStart);
+        final List<Long> readNanos = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> readerError = new AtomicReference<Throwable>();
+        final CountDownLatch readersDone = new CountDownLatch(READER_THREADS);
+
+        // Something to read from the start
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(locationRowId, forecastStart, 14, 0));
+
+        for (int i = 0; i < READER_THREADS; i++) {
+            new Thread("Reader-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        while (writing.get()) {
+                            // The days being read never change, so they would otherwise all
+                            // come out of the query cache; this is about the database
+                            ForecastQueryCache.getInstance().invalidateAll();
+                            long start = System.nanoTime();
+                            Cursor cursor = mContext.getContentResolver().query(forecastUri,
+                                    TestQueryPlans.FORECAST_COLUMNS, null, null,
+                                    WeatherEntry.COLUMN_DATE + " ASC");
+                            // getCount() is what actually runs the query
+                            cursor.getCount();
+                            cursor.close();
+                            readNanos.add(System.nanoTime() - start);
+                        }
+                    } catch (Throwable t) {
+                        readerError.set(t);
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        List<Long> writeNanos = new ArrayList<Long>();
+        try {
+            for (int i = 0; i < WRITES; i++) {
+                long start = System.nanoTime();
+                writer.write(locationRowId, i);
+                writeNanos.add(System.nanoTime() - start);
+            }
+        } finally {
+            writing.set(false);
+            readersDone.await();
+        }
+        if (readerError.get() != null) {
+            throw readerError.get();
+        }
+
+        List<Long> reads = new ArrayList<Long>(readNanos);
+        Collections.sort(reads);
+        Collections.sort(writeNanos);
+        long p50 = percentileMillis(reads, 50);
+        long p99 = percentileMillis(reads, 99);
+        long medianWrite = percentileMillis(writeNanos, 50);
+        Log.d(LOG_TAG, reads.size() + " reads during " + WRITES + " " + writes + " of " +
+                ROWS_PER_WRITE + " rows: p50 " + p50 + " ms, p99 " + p99 + " ms; median write " +
+                medianWrite + " ms");
+
+        assertTrue("Error: Not enough reads to measure", reads.size() >= 100);
+        assertTrue("Error: p99 read latency of " + p99 + " ms suggests reads wait for the " +
+                "write transaction (" + medianWrite + " ms)", p99 < medianWrite / 2);
+    }
+
+    private static ContentValues[] createWeatherValues(long locationRowId, long startDate,
+                                                       int count, int pass) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, startDate + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + pass);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    private static long percentileMillis(List<Long> sortedNanos, int percentile) {
+        int index = Math.min(sortedNanos.size() - 1, sortedNanos.size() * percentile / 100);
+        return sortedNanos.get(index) / 1000000;
+    }
+}
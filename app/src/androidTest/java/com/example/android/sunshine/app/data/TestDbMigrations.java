@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Builds a database the way each earlier version of the app left it, fills it with a location
+    and a forecast, and lets WeatherDbHelper upgrade it in place.  The upgraded database must
+    keep its rows and end up with the same schema as a freshly created one.
+
+    The schemas below are frozen copies of what each version created.  When the schema changes,
+    add the new version here rather than editing an old one.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    static final String MIGRATED_DATABASE = "weather_migration_test.db";
+    static final String FRESH_DATABASE = "weather_fresh_test.db";
+
+    static final String[] SCHEMA_V2 = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    static final String[] SCHEMA_V3 = concat(SCHEMA_V2,
+            "CREATE INDEX IF NOT EXISTS weather_by_location_date ON weather (location_id, date, " +
+                    "weather_id, short_desc, max, min, humidity, pressure, wind, degrees);",
+            "CREATE INDEX IF NOT EXISTS location_by_setting ON location (location_setting, " +
+                    "coord_lat, coord_long, city_name);"
+    );
+
+    static final String[] SCHEMA_V4 = concat(SCHEMA_V3,
+            "CREATE TABLE weather_archive (_id INTEGER PRIMARY KEY,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, days INTEGER NOT NULL, short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (location_id, date) ON CONFLICT REPLACE);"
+    );
+
+    static final String[] SCHEMA_V5 = concat(SCHEMA_V4,
+            "CREATE TABLE weather_summary (_id INTEGER PRIMARY KEY,location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, days INTEGER NOT NULL, min REAL NOT NULL, " +
+                    "max REAL NOT NULL, avg REAL NOT NULL, precipitation_days INTEGER NOT NULL, " +
+                    "weather_id INTEGER NOT NULL,short_desc TEXT NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (location_id, date) ON CONFLICT REPLACE);"
+    );
+
+    static final String[] SCHEMA_V6 = concat(SCHEMA_V5,
+            "CREATE TABLE hourly (location_id INTEGER NOT NULL, epoch_hour INTEGER NOT NULL, " +
+                    "temp INTEGER NOT NULL, humidity INTEGER NOT NULL, pressure INTEGER NOT NULL, " +
+                    "wind INTEGER NOT NULL, degrees INTEGER NOT NULL, weather_id INTEGER NOT NULL, " +
+                    "precipitation INTEGER NOT NULL,  " +
+                    "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "PRIMARY KEY (location_id, epoch_hour) ON CONFLICT REPLACE);"
+    );
+
+    // Index i holds the schema of version i + 2
+    static final String[][] HISTORICAL_SCHEMAS = {SCHEMA_V2, SCHEMA_V3, SCHEMA_V4, SCHEMA_V5,
+            SCHEMA_V6};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(MIGRATED_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(MIGRATED_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+        super.tearDown();
+    }
+
+    public void testEveryVersionUpgradesInPlace() {
+        assertEquals("Error: Add the schema of the current version to HISTORICAL_SCHEMAS",
+                WeatherDbHelper.DATABASE_VERSION, HISTORICAL_SCHEMAS.length + 1);
+
+        Set<String> freshSchema = readSchema(FRESH_DATABASE);
+        for (int i = 0; i < HISTORICAL_SCHEMAS.length; i++) {
+            int version = i + 2;
+            mContext.deleteDatabase(MIGRATED_DATABASE);
+            createDatabase(MIGRATED_DATABASE, version, HISTORICAL_SCHEMAS[i]);
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, MIGRATED_DATABASE);
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+            assertEquals("Error: Upgrading from version " + version + " lost the locations",
+                    1, DatabaseUtils.queryNumEntries(db, WeatherContract.LocationEntry.TABLE_NAME));
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                    null, null, null);
+            TestUtilities.validateCursor("Error: Upgrading from version " + version +
+                    " lost the forecast", cursor, TestUtilities.createWeatherValues(1));
+            dbHelper.close();
+
+            assertEquals("Error: Upgrading from version " + version +
+                    " did not reach the current schema", freshSchema, readSchema(MIGRATED_DATABASE));
+        }
+    }
+
+    public void testVersion1StartsOver() {
+        // Nothing is known about version 1 databases beyond their tables' names
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(MIGRATED_DATABASE), null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT)");
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, date TEXT)");
+        db.setVersion(1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, MIGRATED_DATABASE);
+        dbHelper.getWritableDatabase();
+        dbHelper.close();
+        assertEquals(readSchema(FRESH_DATABASE), readSchema(MIGRATED_DATABASE));
+    }
+
+    private void createDatabase(String name, int version, String[] schema) {
+        File path = mContext.getDatabasePath(name);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        for (String statement : schema) {
+            db.execSQL(statement);
+        }
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(WeatherContract.LocationEntry._ID, 1);
+        assertTrue(db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location) != -1);
+        assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(1)) != -1);
+        db.setVersion(version);
+        db.close();
+    }
+
+    /*
+        Every table and index, as "type name: sql".  Whitespace is collapsed, since SQLite keeps
+        the CREATE statements the way they were written.
+     */
+    private Set<String> readSchema(String name) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, name);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master " +
+                "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        Set<String> schema = new HashSet<String>();
+        while (cursor.moveToNext()) {
+            String sql = cursor.isNull(2) ? "" : cursor.getString(2)
+                    .replaceAll("\\s+", " ").replace("IF NOT EXISTS ", "");
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + sql);
+        }
+        cursor.close();
+        dbHelper.close();
+        return schema;
+    }
+
+    private static String[] concat(String[] schema, String... statements) {
+        String[] result = new String[schema.length + statements.length];
+        System.arraycopy(schema, 0, result, 0, schema.length);
+        System.arraycopy(statements, 0, result, schema.length, statements.length);
+        return result;
+    }
+}
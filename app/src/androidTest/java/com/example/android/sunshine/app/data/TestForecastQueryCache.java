@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Queries the forecast routes through the provider the way the fragments and widgets do, and
+    checks that repeated reads come from memory and that each write drops exactly the cached
+    results it changes.
+ */
+public class TestForecastQueryCache extends AndroidTestCase {
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final ForecastQueryCache mCache = ForecastQueryCache.getInstance();
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocation(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createWeatherValues(0), createWeatherValues(1)});
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testRepeatedQueriesComeFromMemory() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        long hits = mCache.getHitCount();
+        long misses = mCache.getMissCount();
+
+        TestUtilities.validateCursor("Error: The first query returned the wrong row",
+                query(uri), createWeatherValues(0));
+        assertEquals(misses + 1, mCache.getMissCount());
+
+        TestUtilities.validateCursor("Error: The cached query returned the wrong row",
+                query(uri), createWeatherValues(0));
+        assertEquals("Error: The repeated query should have been served from memory",
+                hits + 1, mCache.getHitCount());
+
+        // A different projection is a different result
+        query(uri, new String[]{WeatherEntry.COLUMN_SHORT_DESC}).close();
+        assertEquals(misses + 2, mCache.getMissCount());
+    }
+
+    public void testWritesDropOnlyWhatTheyChange() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        Uri tomorrow = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE + DAY_IN_MILLIS);
+        query(today).close();
+        query(tomorrow).close();
+
+        ContentValues updatedValues = createWeatherValues(0);
+        updatedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        long hits = mCache.getHitCount();
+        TestUtilities.validateCursor("Error: The updated day was served from the cache",
+                query(today), updatedValues);
+        assertEquals(hits, mCache.getHitCount());
+        query(tomorrow).close();
+        assertEquals("Error: A day that did not change should still be cached",
+                hits + 1, mCache.getHitCount());
+
+        // An upsert that changes nothing leaves the cache alone
+        hits = mCache.getHitCount();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{createWeatherValues(1)});
+        query(tomorrow).close();
+        assertEquals(hits + 1, mCache.getHitCount());
+
+        // Deleting the location takes every forecast with it
+        TestUtilities.deleteAllRecords(mContext);
+        Cursor cursor = query(tomorrow);
+        assertEquals("Error: A forecast of a deleted location was served from the cache",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    private Cursor query(Uri uri) {
+        return query(uri, null);
+    }
+
+    private Cursor query(Uri uri, String[] projection) {
+        return mContext.getContentResolver().query(uri, projection, null, null, null);
+    }
+
+    private ContentValues createWeatherValues(int day) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + day * DAY_IN_MILLIS));
+        return values;
+    }
+}
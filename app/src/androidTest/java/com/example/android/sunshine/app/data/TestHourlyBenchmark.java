@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/*
+    Stores a full 3-hour forecast, 40 steps, for each of 50 locations through the provider the
+    way the sync does, then reads every location's days back one slice at a time the way a day
+    view would, and logs how long both take.
+ */
+public class TestHourlyBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestHourlyBenchmark.class.getSimpleName();
+
+    static final int LOCATION_COUNT = 50;
+    static final int STEP_COUNT = 40;
+    static final int STEP_HOURS = 3;
+    static final int STEPS_PER_DAY = 24 / STEP_HOURS;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long[] mLocationRowIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowIds = new long[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocationSetting(i));
+            mLocationRowIds[i] = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, location));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testHourlyBenchmark() {
+        long day = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        // The first whole hour of the day, where its slice starts
+        long firstHour = HourlyEntry.toEpochHour(day + HourlyEntry.HOUR_IN_MILLIS - 1);
+
+        long start = System.nanoTime();
+        for (long locationRowId : mLocationRowIds) {
+            ContentValues[] steps = new ContentValues[STEP_COUNT];
+            for (int i = 0; i < STEP_COUNT; i++) {
+                steps[i] = createHourlyValues(locationRowId, firstHour + i * STEP_HOURS);
+            }
+            assertEquals(STEP_COUNT,
+                    mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, steps));
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        int dayCount = STEP_COUNT / STEPS_PER_DAY;
+        start = System.nanoTime();
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            for (int d = 0; d < dayCount; d++) {
+                Cursor cursor = mContext.getContentResolver().query(
+                        HourlyEntry.buildHourlyLocationWithDate(getLocationSetting(i),
+                                day + d * DAY_IN_MILLIS),
+                        null, null, null, HourlyEntry.COLUMN_EPOCH_HOUR + " ASC");
+                assertNotNull(cursor);
+                assertEquals("Error: A day should hold " + STEPS_PER_DAY + " steps",
+                        STEPS_PER_DAY, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(firstHour + d * 24, cursor.getLong(
+                        cursor.getColumnIndex(HourlyEntry.COLUMN_EPOCH_HOUR)));
+                cursor.close();
+            }
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        int rowCount = LOCATION_COUNT * STEP_COUNT;
+        Log.d(LOG_TAG, rowCount + " steps stored in " + insertNanos / 1000000 + " ms, "
+                + LOCATION_COUNT * dayCount + " day slices read in " + queryNanos / 1000000
+                + " ms");
+    }
+
+    private static String getLocationSetting(int i) {
+        return TestUtilities.TEST_LOCATION + i;
+    }
+
+    private static ContentValues createHourlyValues(long locationRowId, long epochHour) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HourlyEntry.COLUMN_EPOCH_HOUR, epochHour);
+        values.put(HourlyEntry.COLUMN_TEMP, HourlyEntry.scale(-12.6, HourlyEntry.TEMP_SCALE));
+        values.put(HourlyEntry.COLUMN_HUMIDITY, 95);
+        values.put(HourlyEntry.COLUMN_PRESSURE,
+                HourlyEntry.scale(1003.63, HourlyEntry.PRESSURE_SCALE));
+        values.put(HourlyEntry.COLUMN_WIND_SPEED,
+                HourlyEntry.scale(5.11, HourlyEntry.WIND_SPEED_SCALE));
+        values.put(HourlyEntry.COLUMN_DEGREES, 171);
+        values.put(HourlyEntry.COLUMN_WEATHER_ID, 600);
+        values.put(HourlyEntry.COLUMN_PRECIPITATION,
+                HourlyEntry.scale(0.75, HourlyEntry.PRECIPITATION_SCALE));
+        return values;
+    }
+}
@@ -16,20 +16,27 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +519,231 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Re-sends a forecast through the upsert path.  Days that did not change must keep their
+        row (and _ID) and not wake up observers; changed days are updated in place.
+     */
+    public void testUpsertWeather() throws Throwable {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+
+        int writeCount = mContext.getContentResolver().bulkInsert(upsertUri, weatherValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, writeCount);
+        long[] rowIds = readWeatherRowIds();
+
+        // The very same forecast again: nothing to write, nothing to tell anyone
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        writeCount = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+        assertEquals("Error: An unchanged forecast should not be written", 0, writeCount);
+        assertFalse("Error: An unchanged forecast should not notify observers",
+                weatherObserver.mContentChanged);
+        assertTrue(Arrays.equals(rowIds, readWeatherRowIds()));
+
+        // One day changes, and a new day shows up at the end
+        ContentValues[] nextValues = createBulkInsertWeatherValues(locationRowId);
+        nextValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        ContentValues newDay = new ContentValues(nextValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE
+                + BULK_INSERT_RECORDS_TO_INSERT * 1000L * 60 * 60 * 24);
+        ContentValues[] changedValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT + 1];
+        System.arraycopy(nextValues, 0, changedValues, 0, BULK_INSERT_RECORDS_TO_INSERT);
+        changedValues[BULK_INSERT_RECORDS_TO_INSERT] = newDay;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, changedValues);
+            Bundle counts = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.METHOD_UPSERT, null, extras);
+            assertEquals(1, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+            assertEquals(1, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        } else {
+            writeCount = mContext.getContentResolver().bulkInsert(upsertUri, changedValues);
+            assertEquals(2, writeCount);
+        }
+
+        long[] newRowIds = readWeatherRowIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, newRowIds.length);
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertEquals("Error: Day " + i + " should have kept its row", rowIds[i], newRowIds[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(rowIds[3])},
+                null
+        );
+        TestUtilities.validateCursor("testUpsertWeather.  Error validating the updated day",
+                cursor, nextValues[3]);
+    }
+
+    /*
+        Adds the same location twice through the get-or-insert URI and the batch call.  It must
+        only be stored once, and every lookup must come back with its _ID, also after the row
+        changed underneath the provider's location ID map.
+     */
+    public void testGetOrInsertLocations() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(
+                LocationEntry.buildGetOrInsertUri(), northPole);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        locationUri = mContext.getContentResolver().insert(
+                LocationEntry.buildGetOrInsertUri(), northPole);
+        assertEquals("Error: A stored location should not be inserted again",
+                locationRowId, ContentUris.parseId(locationUri));
+
+        // Moving the location's row must not leave a stale _ID behind
+        ContentValues movedValues = new ContentValues(northPole);
+        movedValues.put(LocationEntry._ID, locationRowId + 100);
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI,
+                movedValues, LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)}));
+        locationRowId += 100;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            ContentValues southPole = new ContentValues(northPole);
+            southPole.put(LocationEntry.COLUMN_LOCATION_SETTING, "99999");
+            southPole.put(LocationEntry.COLUMN_COORD_LAT, -90.0);
+            Bundle extras = new Bundle();
+            extras.putParcelableArray(LocationEntry.EXTRA_VALUES,
+                    new ContentValues[]{northPole, southPole, southPole});
+            Bundle result = mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                    LocationEntry.METHOD_GET_OR_INSERT, null, extras);
+            long[] locationIds = result.getLongArray(LocationEntry.EXTRA_IDS);
+            assertEquals(3, locationIds.length);
+            assertEquals(locationRowId, locationIds[0]);
+            assertTrue("Error: A new location should get a new row", locationIds[1] != locationRowId);
+            assertEquals("Error: A location listed twice should only be stored once",
+                    locationIds[1], locationIds[2]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        assertEquals(1, cursor.getCount());
+        TestUtilities.validateCursor("testGetOrInsertLocations.  Error validating the location",
+                cursor, movedValues);
+    }
+
+    /*
+        Writes the forecast of one location while another location's forecast is observed.  The
+        provider notifies per location, so the other observer should sleep through it, and the
+        ten new rows should make a single notification.
+     */
+    public void testNotificationsPerLocation() throws Throwable {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues southPole = TestUtilities.createNorthPoleLocationValues();
+        southPole.put(LocationEntry.COLUMN_LOCATION_SETTING, "99999");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, southPole);
+
+        TestUtilities.TestContentObserver northObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, northObserver);
+        TestUtilities.TestContentObserver southObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("99999"), true, southObserver);
+
+        long sent = ChangeNotifier.getSentCount();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: A bulk insert into one location should notify once",
+                sent + 1, ChangeNotifier.getSentCount());
+
+        northObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(northObserver);
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(southObserver);
+        southObserver.mHT.quit();
+        assertFalse("Error: Another location's observers should not be notified",
+                southObserver.mContentChanged);
+    }
+
+    /*
+        Stores a location and its forecast the way a sync does, in one applyBatch.  A batch that
+        fails halfway must leave nothing behind, not even the location.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = createForecastOperations();
+        // Fails: it updates the BULK_INSERT_RECORDS_TO_INSERT rows above, not twice as many
+        operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                .withValue(WeatherEntry.COLUMN_SHORT_DESC, "Meteors")
+                .withExpectedCount(BULK_INSERT_RECORDS_TO_INSERT * 2)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: The batch should have failed on its last operation");
+        } catch (OperationApplicationException expected) {
+            // Everything before it should be rolled back
+        }
+        assertEquals(0, readWeatherRowIds().length);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: A failed batch should not leave its location behind",
+                0, cursor.getCount());
+        cursor.close();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        long sent = ChangeNotifier.getSentCount();
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createForecastOperations());
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        // The location table, and the forecast of the location
+        assertEquals(sent + 2, ChangeNotifier.getSentCount());
+
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        ContentValues[] expectedValues = createBulkInsertWeatherValues(locationRowId);
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, expectedValues[i]);
+        }
+        cursor.close();
+    }
+
+    private ArrayList<ContentProviderOperation> createForecastOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildGetOrInsertUri())
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // The location ID is not known yet; it's whatever the insert above returns
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    private long[] readWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Asks the provider how SQLite runs the queries the app actually makes, route by route, and
+    fails on any that would read a whole table.  The projections mirror the ones in
+    ForecastFragment, DetailFragment and the widgets.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    static final String[] WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    public void testLocationRoutesUseCoveringIndexes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        String location = TestUtilities.TEST_LOCATION;
+        long date = TestUtilities.TEST_DATE;
+
+        // Forecast list, weather/*?date=
+        String[] plan = explain(WeatherEntry.buildWeatherLocationWithStartDate(location, date),
+                FORECAST_COLUMNS, null, null, SORT_BY_DATE);
+        assertNoFullScan("forecast list", plan);
+        assertCovered("forecast list", plan);
+        assertNoSort("forecast list", plan);
+
+        // Today widget and Muzei, weather/*?date=
+        plan = explain(WeatherEntry.buildWeatherLocationWithStartDate(location, date),
+                WIDGET_COLUMNS, null, null, SORT_BY_DATE);
+        assertNoFullScan("widget", plan);
+        assertCovered("widget", plan);
+        assertNoSort("widget", plan);
+
+        // Detail view and notification, weather/*/#
+        plan = explain(WeatherEntry.buildWeatherLocationWithDate(location, date),
+                DETAIL_COLUMNS, null, null, null);
+        assertNoFullScan("detail", plan);
+        assertCovered("detail", plan);
+
+        // weather/*
+        plan = explain(WeatherEntry.buildWeatherLocation(location), FORECAST_COLUMNS, null, null,
+                SORT_BY_DATE);
+        assertNoFullScan("weather by location", plan);
+        assertNoSort("weather by location", plan);
+
+        // History, archive/*?start=&end=
+        plan = explain(ArchiveEntry.buildArchiveLocationWithDateRange(location, date,
+                date + 30 * WeatherArchive.DAY_IN_MILLIS), null, null, null,
+                ArchiveEntry.COLUMN_DATE + " ASC");
+        assertNoFullScan("history", plan);
+        assertNoSort("history", plan);
+
+        // A day of the 3-hour forecast, hourly/*/#
+        plan = explain(HourlyEntry.buildHourlyLocationWithDate(location, date), null, null, null,
+                HourlyEntry.COLUMN_EPOCH_HOUR + " ASC");
+        assertNoFullScan("hourly", plan);
+        assertNoSort("hourly", plan);
+    }
+
+    public void testTableRoutesUseIndexes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        // weather, with the selections the sync makes: dropping past days...
+        assertNoFullScan("old weather", explain(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{"0"}, null));
+        // ...and reading the stored days of a location before an upsert
+        assertNoFullScan("stored weather", explain(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE +
+                        " BETWEEN ? AND ?", new String[]{"1", "0", "1"}, null));
+
+        // location, looked up by setting
+        String[] plan = explain(LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        assertNoFullScan("location", plan);
+        assertCovered("location", plan);
+    }
+
+    private String[] explain(Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+        Bundle extras = new Bundle();
+        extras.putStringArray(WeatherContract.EXTRA_PROJECTION, projection);
+        extras.putString(WeatherContract.EXTRA_SELECTION, selection);
+        extras.putStringArray(WeatherContract.EXTRA_SELECTION_ARGS, selectionArgs);
+        extras.putString(WeatherContract.EXTRA_SORT_ORDER, sortOrder);
+        Bundle result = mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                WeatherContract.METHOD_EXPLAIN_QUERY_PLAN, uri.toString(), extras);
+        assertNotNull("Error: The provider should explain query plans in debug builds", result);
+        String[] plan = result.getStringArray(WeatherContract.EXTRA_QUERY_PLAN);
+        for (String step : plan) {
+            Log.d(LOG_TAG, uri + ": " + step);
+        }
+        return plan;
+    }
+
+    private static void assertNoFullScan(String route, String[] plan) {
+        for (String step : plan) {
+            // "SCAN TABLE weather", or "SCAN weather" on newer SQLite versions
+            assertFalse("Error: The " + route + " query reads a whole table: " + step,
+                    step.startsWith("SCAN"));
+        }
+    }
+
+    private static void assertCovered(String route, String[] plan) {
+        for (String step : plan) {
+            if (step.startsWith("SEARCH")) {
+                assertTrue("Error: The " + route + " query has to go back to the table: " + step,
+                        step.contains("COVERING INDEX") || step.contains("PRIMARY KEY"));
+            }
+        }
+    }
+
+    private static void assertNoSort(String route, String[] plan) {
+        for (String step : plan) {
+            assertFalse("Error: The " + route + " query sorts its rows: " + step,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+}
@@ -36,6 +36,15 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/summary"
+    private static final Uri TEST_SUMMARY_DIR = WeatherContract.SummaryEntry.CONTENT_URI;
+    private static final Uri TEST_SUMMARY_WITH_LOCATION_DIR = WeatherContract.SummaryEntry.buildSummaryLocation(LOCATION_QUERY);
+    private static final Uri TEST_SUMMARY_WITH_LOCATION_AND_DATE_DIR = WeatherContract.SummaryEntry.buildSummaryLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_AND_DATE_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/sync_trace"
+    private static final Uri TEST_SYNC_TRACE_DIR = WeatherContract.SyncTraceEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +62,17 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The SUMMARY URI was matched incorrectly.",
+                testMatcher.match(TEST_SUMMARY_DIR), WeatherProvider.SUMMARY);
+        assertEquals("Error: The SUMMARY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_SUMMARY_WITH_LOCATION_DIR), WeatherProvider.SUMMARY_WITH_LOCATION);
+        assertEquals("Error: The SUMMARY WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_SUMMARY_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.SUMMARY_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.HOURLY_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The SYNC TRACE URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_TRACE_DIR), WeatherProvider.SYNC_TRACE);
     }
 }
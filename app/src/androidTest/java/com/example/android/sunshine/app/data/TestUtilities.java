@@ -15,6 +15,8 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -111,6 +113,36 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        Adds the North Pole through the provider, unlike insertNorthPoleLocationValues(), so
+        the provider knows its _ID from the start.
+     */
+    static long insertNorthPoleLocation(Context context) {
+        Uri locationUri = context.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, createNorthPoleLocationValues());
+        assertNotNull("Error: Failure to insert North Pole Location Values", locationUri);
+        return ContentUris.parseId(locationUri);
+    }
+
+    /*
+        Empties every table through the provider, so its caches forget the rows too.  The rows
+        that point at a location go first, so none is left behind for the _ID of a location
+        that a later insert may reuse.
+     */
+    public static void deleteAllRecords(Context context) {
+        ContentResolver resolver = context.getContentResolver();
+        resolver.delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        resolver.delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+        // The weekly summaries go with the last of their days
+        resolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+
+        Cursor cursor = resolver.query(WeatherContract.SummaryEntry.CONTENT_URI, null, null,
+                null, null);
+        assertEquals("Error: Weekly summaries were left behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
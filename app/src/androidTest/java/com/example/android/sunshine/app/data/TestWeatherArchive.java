@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Moves past days into the archive the way the sync does, reads them back by date range, and
+    compacts a year and more of archived days against a fixed "today" to check what is kept as
+    days, what is rolled into weeks, and what is dropped.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    static final String COMPACTION_DATABASE = "weather_archive_test.db";
+
+    private final Time mTime = new Time();
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mContext.deleteDatabase(COMPACTION_DATABASE);
+        mLocationRowId = TestUtilities.insertNorthPoleLocation(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        mContext.deleteDatabase(COMPACTION_DATABASE);
+        super.tearDown();
+    }
+
+    public void testArchivingDeleteKeepsTheDays() {
+        // Recent days, which compaction leaves as they are
+        int today = today();
+        ContentValues[] days = new ContentValues[3];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(today - 3 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        int deleted = mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherArchivingUri(), WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(date(today - 2))});
+        assertEquals(2, deleted);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: The archived days should have left the weather table",
+                1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithDateRange(TestUtilities.TEST_LOCATION,
+                        date(today - 10), date(today)),
+                null, null, null, ArchiveEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The archive should hold the deleted days", 2, cursor.getCount());
+        for (int i = 0; i < 2; i++) {
+            cursor.moveToPosition(i);
+            TestUtilities.validateCurrentRecord("Error: Archived day " + i + " changed",
+                    cursor, days[i]);
+            assertEquals(1, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS)));
+        }
+        cursor.close();
+
+        // A plain delete drops the rows without archiving them
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(2, count(ArchiveEntry.buildArchiveLocationWithDateRange(
+                TestUtilities.TEST_LOCATION, date(today - 10), date(today))));
+    }
+
+    public void testRangeQueriesFindTheWeeksThatOverlap() {
+        int today = today();
+        // Two weeks and two days, recent enough to be left alone by any compaction that is
+        // still running in the background
+        int week = today - 20 - (today - 20) % 7;
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.insert(ArchiveEntry.TABLE_NAME, null, createArchiveValues(week, 7));
+        db.insert(ArchiveEntry.TABLE_NAME, null, createArchiveValues(week - 7, 7));
+        db.insert(ArchiveEntry.TABLE_NAME, null, createArchiveValues(week + 7, 1));
+        db.insert(ArchiveEntry.TABLE_NAME, null, createArchiveValues(week + 8, 1));
+        dbHelper.close();
+
+        assertEquals("Error: The range should take in the week it starts in and the next day",
+                2, count(ArchiveEntry.buildArchiveLocationWithDateRange(
+                        TestUtilities.TEST_LOCATION, date(week + 6), date(week + 7))));
+        assertEquals("Error: A range inside a week should find the week",
+                1, count(ArchiveEntry.buildArchiveLocationWithDateRange(
+                        TestUtilities.TEST_LOCATION, date(week + 2), date(week + 3))));
+        assertEquals("Error: Another location's history should be empty",
+                0, count(ArchiveEntry.buildArchiveLocationWithDateRange(
+                        "nowhere", date(week - 7), date(week + 8))));
+    }
+
+    public void testCompactionRollsUpWeeksAndBoundsTheArchive() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, COMPACTION_DATABASE);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        // A Thursday, so the 30 days of daily rows reach back into the middle of a week
+        int today = 2457000 - 2457000 % 7 + 3;
+        long now = date(today) + 12 * 60 * 60 * 1000;
+        int oldestDay = today - 500;
+        db.beginTransaction();
+        try {
+            for (int day = oldestDay; day < today; day++) {
+                assertTrue(db.insert(ArchiveEntry.TABLE_NAME, null,
+                        createArchiveValues(day, 1)) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        int compacted = WeatherArchive.compact(db, now);
+        assertTrue(compacted > 0);
+
+        // Whole weeks only: daily rows start at the Monday on or before 30 days ago
+        int dailyCutoff = today - ArchiveEntry.ARCHIVE_DAILY_DAYS;
+        dailyCutoff -= dailyCutoff % 7;
+        int weeklyCutoff = dailyCutoff - 7 * ArchiveEntry.ARCHIVE_WEEKLY_WEEKS;
+        int dailyRows = today - dailyCutoff;
+        assertEquals("Error: The archive should hold the daily rows and a year of weeks",
+                dailyRows + ArchiveEntry.ARCHIVE_WEEKLY_WEEKS,
+                DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME));
+        assertEquals("Error: The last days should be kept as they were", dailyRows,
+                DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME,
+                        ArchiveEntry.COLUMN_DAYS + " = 1 AND " + ArchiveEntry.COLUMN_DATE +
+                                " >= " + date(dailyCutoff)));
+        assertEquals("Error: Nothing should be older than the weekly history", 0,
+                DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME,
+                        ArchiveEntry.COLUMN_DATE + " < " + date(weeklyCutoff)));
+
+        Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, null,
+                ArchiveEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(date(dailyCutoff))},
+                null, null, ArchiveEntry.COLUMN_DATE + " ASC");
+        assertEquals(ArchiveEntry.ARCHIVE_WEEKLY_WEEKS, cursor.getCount());
+        int week = weeklyCutoff;
+        while (cursor.moveToNext()) {
+            assertEquals(date(week), cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_DATE)));
+            assertEquals(7, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS)));
+            // The extremes of the week, and the averages of its days
+            assertEquals(0.0, getDouble(cursor, ArchiveEntry.COLUMN_MIN_TEMP));
+            assertEquals(16.0, getDouble(cursor, ArchiveEntry.COLUMN_MAX_TEMP));
+            assertEquals(3.0, getDouble(cursor, ArchiveEntry.COLUMN_HUMIDITY), 1e-9);
+            // Four days at 350 degrees and three at 10 average out just west of north
+            double degrees = getDouble(cursor, ArchiveEntry.COLUMN_DEGREES);
+            assertTrue("Error: Wind direction " + degrees + " is not around north",
+                    degrees > 350 || degrees < 10);
+            // The most common condition of the week
+            assertEquals(800, cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID)));
+            assertEquals("Clear", cursor.getString(
+                    cursor.getColumnIndex(ArchiveEntry.COLUMN_SHORT_DESC)));
+            week += 7;
+        }
+        cursor.close();
+
+        // Nothing crossed the line since, so there is nothing to do
+        assertEquals(0, WeatherArchive.compact(db, now));
+
+        // A day later, nothing either: the next week only goes once all of it is old enough...
+        assertEquals(0, WeatherArchive.compact(db, now + WeatherArchive.DAY_IN_MILLIS));
+        // ...and a week later, just that one week is rolled up and one is dropped
+        assertEquals(7 + 1, WeatherArchive.compact(db, now + 7 * WeatherArchive.DAY_IN_MILLIS));
+        dbHelper.close();
+    }
+
+    private int today() {
+        long now = System.currentTimeMillis();
+        mTime.set(now);
+        return Time.getJulianDay(now, mTime.gmtoff);
+    }
+
+    private long date(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    private ContentValues createWeatherValues(int julianDay) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, date(julianDay));
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, julianDay % 100);
+        return values;
+    }
+
+    // Every week of these is the same: temperatures and humidity climb from Monday to Sunday,
+    // the wind swings around north, and it is clear four days out of seven
+    private ContentValues createArchiveValues(int julianDay, int days) {
+        int weekday = julianDay % 7;
+        ContentValues values = new ContentValues();
+        values.put(ArchiveEntry.COLUMN_LOC_KEY, mLocationRowId);
+        values.put(ArchiveEntry.COLUMN_DATE, date(julianDay));
+        values.put(ArchiveEntry.COLUMN_DAYS, days);
+        values.put(ArchiveEntry.COLUMN_WEATHER_ID, weekday < 4 ? 800 : 500);
+        values.put(ArchiveEntry.COLUMN_SHORT_DESC, weekday < 4 ? "Clear" : "Rain");
+        values.put(ArchiveEntry.COLUMN_MIN_TEMP, weekday);
+        values.put(ArchiveEntry.COLUMN_MAX_TEMP, 10 + weekday);
+        values.put(ArchiveEntry.COLUMN_HUMIDITY, weekday);
+        values.put(ArchiveEntry.COLUMN_PRESSURE, 1000);
+        values.put(ArchiveEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(ArchiveEntry.COLUMN_DEGREES, weekday % 2 == 0 ? 350 : 10);
+        return values;
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndex(column));
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares how fast weather rows go in through SQLiteDatabase.insert(), which is how
+    bulkInsert used to write them, and through the compiled WeatherInsertStatement.  Both run
+    inside a single transaction, as they do in bulkInsert.
+ */
+public class TestWeatherInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherInsertBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
+        mLocationRowId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(mLocationRowId != -1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testCompiledInsertMatchesInsert() {
+        ContentValues expected = createWeatherValues(0);
+        WeatherInsertStatement statement = new WeatherInsertStatement(mDb);
+        long rowId = statement.insert(expected);
+        statement.close();
+        assertTrue(rowId != -1);
+
+        TestUtilities.validateCursor("testCompiledInsertMatchesInsert.  Error validating row",
+                mDb.query(WeatherEntry.TABLE_NAME, null, WeatherEntry._ID + " = " + rowId,
+                        null, null, null, null),
+                expected);
+        ContentValues withId = new ContentValues(expected);
+        withId.put(WeatherEntry._ID, rowId + 1);
+        assertFalse("Error: An explicit _ID can't go through the compiled statement",
+                WeatherInsertStatement.canInsert(withId));
+    }
+
+    public void testInsertBenchmark() {
+        int[] rowCounts = {14, 1000, 100000};
+        for (int rowCount : rowCounts) {
+            long insertNanos = timeInserts(rowCount, false);
+            long compiledNanos = timeInserts(rowCount, true);
+            Log.d(LOG_TAG, rowCount + " rows: insert() " + rowsPerSecond(rowCount, insertNanos)
+                    + " rows/s, compiled " + rowsPerSecond(rowCount, compiledNanos) + " rows/s");
+            if (rowCount >= 100000) {
+                // Too few rows and the timings are all noise
+                assertTrue("Error: The compiled statement should not be slower than insert()",
+                        compiledNanos < insertNanos);
+            }
+        }
+    }
+
+    private long timeInserts(int rowCount, boolean compiled) {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        // One set of values, refilled for every row, so both paths pay the same for them
+        ContentValues values = createWeatherValues(0);
+
+        long start = System.nanoTime();
+        WeatherInsertStatement statement = compiled ? new WeatherInsertStatement(mDb) : null;
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                fillWeatherValues(values, i);
+                long rowId = compiled
+                        ? statement.insert(values)
+                        : mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+                assertTrue(rowId != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(rowCount, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        return elapsed;
+    }
+
+    private ContentValues createWeatherValues(int day) {
+        ContentValues values = new ContentValues();
+        fillWeatherValues(values, day);
+        return values;
+    }
+
+    private void fillWeatherValues(ContentValues values, int day) {
+        values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+        values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day % 10);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - day % 10);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+    }
+
+    private static long rowsPerSecond(int rowCount, long nanos) {
+        return nanos == 0 ? 0 : rowCount * 1000000000L / nanos;
+    }
+}
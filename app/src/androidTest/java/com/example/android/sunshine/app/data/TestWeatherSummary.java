@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Writes a week and a half of forecast through the provider and checks that the weekly
+    summaries follow every kind of write: inserts, upserts, updates and deletes.
+ */
+public class TestWeatherSummary extends AndroidTestCase {
+
+    private final Time mTime = new Time();
+    private long mLocationRowId;
+    // The Monday of the first week
+    private int mWeek;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocation(mContext);
+
+        long now = System.currentTimeMillis();
+        mTime.set(now);
+        int today = Time.getJulianDay(now, mTime.gmtoff);
+        mWeek = today - today % 7;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testWritesKeepTheWeeksUpToDate() {
+        ContentValues[] days = new ContentValues[10];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        Cursor cursor = query(SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION));
+        assertEquals("Error: There should be a summary for each week", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(date(mWeek), getLong(cursor, SummaryEntry.COLUMN_DATE));
+        assertEquals(7, getLong(cursor, SummaryEntry.COLUMN_DAYS));
+        assertEquals(0.0, getDouble(cursor, SummaryEntry.COLUMN_MIN_TEMP));
+        assertEquals(16.0, getDouble(cursor, SummaryEntry.COLUMN_MAX_TEMP));
+        // Each day's mean is 5 + i, for i from 0 to 6
+        assertEquals(8.0, getDouble(cursor, SummaryEntry.COLUMN_AVG_TEMP), 1e-9);
+        assertEquals(3, getLong(cursor, SummaryEntry.COLUMN_PRECIPITATION_DAYS));
+        assertEquals(800, getLong(cursor, SummaryEntry.COLUMN_WEATHER_ID));
+        assertEquals("Clear", cursor.getString(cursor.getColumnIndex(SummaryEntry.COLUMN_SHORT_DESC)));
+        cursor.moveToNext();
+        assertEquals(date(mWeek + 7), getLong(cursor, SummaryEntry.COLUMN_DATE));
+        assertEquals(3, getLong(cursor, SummaryEntry.COLUMN_DAYS));
+        cursor.close();
+
+        // An upsert that turns the week to rain
+        ContentValues[] rain = new ContentValues[2];
+        for (int i = 0; i < rain.length; i++) {
+            rain[i] = createWeatherValues(i);
+            rain[i].put(WeatherEntry.COLUMN_WEATHER_ID, 500);
+            rain[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(), rain);
+        cursor = query(SummaryEntry.buildSummaryLocationWithDate(TestUtilities.TEST_LOCATION,
+                date(mWeek + 3)));
+        assertEquals("Error: A date should find the summary of its week", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(5, getLong(cursor, SummaryEntry.COLUMN_PRECIPITATION_DAYS));
+        assertEquals(500, getLong(cursor, SummaryEntry.COLUMN_WEATHER_ID));
+        cursor.close();
+
+        // An update of the whole week
+        ContentValues cold = new ContentValues();
+        cold.put(WeatherEntry.COLUMN_MIN_TEMP, -40);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, cold,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(date(mWeek + 7))});
+        cursor = query(SummaryEntry.buildSummaryLocationWithDate(TestUtilities.TEST_LOCATION,
+                date(mWeek)));
+        cursor.moveToFirst();
+        assertEquals(-40.0, getDouble(cursor, SummaryEntry.COLUMN_MIN_TEMP));
+        cursor.close();
+
+        // Deleting the days of a week deletes its summary
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{Long.toString(date(mWeek + 7))});
+        cursor = query(SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION));
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = query(SummaryEntry.CONTENT_URI);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testArchivedDaysStayInTheirWeek() {
+        ContentValues[] days = new ContentValues[7];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        // The sync moves the days that have passed into the archive, here half of the week
+        mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchivingUri(),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(date(mWeek + 3))});
+        Cursor cursor = query(SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION));
+        assertEquals("Error: Archiving should not drop the week", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: The archived days should still count", 7,
+                getLong(cursor, SummaryEntry.COLUMN_DAYS));
+        assertEquals(0.0, getDouble(cursor, SummaryEntry.COLUMN_MIN_TEMP));
+        assertEquals(16.0, getDouble(cursor, SummaryEntry.COLUMN_MAX_TEMP));
+        assertEquals(8.0, getDouble(cursor, SummaryEntry.COLUMN_AVG_TEMP), 1e-9);
+        assertEquals(3, getLong(cursor, SummaryEntry.COLUMN_PRECIPITATION_DAYS));
+        cursor.close();
+
+        // The next sync rewrites the rest of the week, which recomputes it
+        ContentValues warm = createWeatherValues(6);
+        warm.put(WeatherEntry.COLUMN_MAX_TEMP, 30);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherUpsertUri(),
+                new ContentValues[]{warm});
+        cursor = query(SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION));
+        cursor.moveToFirst();
+        assertEquals("Error: A later write should keep the archived days", 7,
+                getLong(cursor, SummaryEntry.COLUMN_DAYS));
+        assertEquals(0.0, getDouble(cursor, SummaryEntry.COLUMN_MIN_TEMP));
+        assertEquals(30.0, getDouble(cursor, SummaryEntry.COLUMN_MAX_TEMP));
+        assertEquals(3, getLong(cursor, SummaryEntry.COLUMN_PRECIPITATION_DAYS));
+        cursor.close();
+    }
+
+    // A summary cursor watches the forecast of its location, which every write of the week
+    // notifies
+    public void testSummaryCursorsAreNotified() {
+        Cursor cursor = query(SummaryEntry.buildSummaryLocation(TestUtilities.TEST_LOCATION));
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        cursor.registerContentObserver(tco);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{createWeatherValues(0)});
+        tco.waitForNotificationOrFail();
+        cursor.unregisterContentObserver(tco);
+        cursor.close();
+    }
+
+    private long date(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    // The temperatures climb through the week, which is clear on days 0 to 3, rains on days 4
+    // and 5 and snows on day 6
+    private ContentValues createWeatherValues(int day) {
+        int weekday = day % 7;
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, date(mWeek + day));
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, weekday);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 10 + weekday);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, weekday < 4 ? 800 : weekday < 6 ? 500 : 600);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC,
+                weekday < 4 ? "Clear" : weekday < 6 ? "Rain" : "Snow");
+        return values;
+    }
+
+    private Cursor query(Uri uri) {
+        return mContext.getContentResolver().query(uri, null, null, null,
+                SummaryEntry.COLUMN_DATE + " ASC");
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndex(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndex(column));
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parser and the org.json parser agree on recorded OpenWeatherMap
+    responses.  The streaming path needs JsonReader, so these only run on Honeycomb and up.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    static final int JULIAN_START_DAY = 2457012;  // December 20th, 2014
+
+    // forecast/daily?q=94043&mode=json&units=metric&cnt=3, as returned by the server
+    static final String FIXTURE_MOUNTAIN_VIEW = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0123,\"cnt\":3,\"list\":[" +
+            "{\"dt\":1419105600,\"temp\":{\"day\":15.2,\"min\":9.81,\"max\":15.2,\"night\":9.81," +
+            "\"eve\":13.48,\"morn\":15.2},\"pressure\":1003.63,\"humidity\":95,\"weather\":[{\"id\":501," +
+            "\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":5.11," +
+            "\"deg\":170,\"clouds\":92,\"rain\":8.5}," +
+            "{\"dt\":1419192000,\"temp\":{\"day\":13.94,\"min\":7.43,\"max\":14.35,\"night\":7.43," +
+            "\"eve\":11.86,\"morn\":9.14},\"pressure\":1010.61,\"humidity\":87.5,\"weather\":[{\"id\":800," +
+            "\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":2.16," +
+            "\"deg\":296,\"clouds\":0}," +
+            "{\"dt\":1419278400,\"temp\":{\"day\":12.17,\"min\":6.2,\"max\":12.5,\"night\":6.2," +
+            "\"eve\":10.97,\"morn\":7.16},\"pressure\":1018.84,\"humidity\":0,\"weather\":[{\"id\":803," +
+            "\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}],\"speed\":1.86," +
+            "\"deg\":309,\"clouds\":56}]}";
+
+    // The same shape with the list ahead of the city and a numeric "cod", which the server also
+    // sends for lat/lon queries
+    static final String FIXTURE_LAT_LON = "{\"cod\":200,\"cnt\":2,\"list\":[" +
+            "{\"dt\":1419105600,\"temp\":{\"day\":-21.5,\"min\":-28.77,\"max\":-19.2},\"pressure\":1011," +
+            "\"humidity\":71,\"weather\":[{\"id\":600,\"main\":\"Snow\",\"description\":\"light snow\"," +
+            "\"icon\":\"13d\"},{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d\"}]," +
+            "\"speed\":1.41,\"deg\":22,\"snow\":0.25}," +
+            "{\"dt\":1419192000,\"pressure\":1008.12,\"temp\":{\"max\":-17.01,\"min\":-25.3}," +
+            "\"humidity\":74,\"weather\":[{\"id\":804,\"main\":\"Clouds\"}],\"speed\":2.02,\"deg\":41}]," +
+            "\"city\":{\"coord\":{\"lat\":64.7488,\"lon\":-147.353},\"name\":\"North Pole\"}}";
+
+    // forecast?q=94043&mode=json&units=metric, cut down to three steps.  The first has rain,
+    // the second an empty rain object, the third snow and rain.
+    static final String FIXTURE_HOURLY = "{\"cod\":\"200\",\"message\":0.0032,\"cnt\":3,\"list\":[" +
+            "{\"dt\":1419055200,\"main\":{\"temp\":9.81,\"temp_min\":9.5,\"temp_max\":9.81," +
+            "\"pressure\":1003.63,\"sea_level\":1026.1,\"humidity\":95},\"weather\":[{\"id\":501," +
+            "\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}]," +
+            "\"clouds\":{\"all\":92},\"wind\":{\"speed\":5.11,\"deg\":170.5},\"rain\":{\"3h\":2.125}," +
+            "\"dt_txt\":\"2014-12-20 06:00:00\"}," +
+            "{\"dt\":1419066000,\"main\":{\"temp\":-0.04,\"pressure\":1010,\"humidity\":87}," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"wind\":{\"speed\":2,\"deg\":296}," +
+            "\"rain\":{}}," +
+            "{\"wind\":{\"deg\":309,\"speed\":1.86},\"snow\":{\"3h\":0.5},\"rain\":{\"3h\":0.25}," +
+            "\"weather\":[{\"id\":616,\"main\":\"Snow\"}],\"dt\":1419076800," +
+            "\"main\":{\"humidity\":90,\"temp\":-1.26,\"pressure\":1018.84}}]," +
+            "\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lat\":37.386051,\"lon\":-122.083847},\"country\":\"US\"}}";
+
+    static final String FIXTURE_NOT_FOUND = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    static final String FIXTURE_TRUNCATED = FIXTURE_MOUNTAIN_VIEW.substring(0, 400);
+
+    static final String FIXTURE_MISSING_TEMPERATURE = "{\"city\":{\"name\":\"Nowhere\"," +
+            "\"coord\":{\"lon\":0,\"lat\":0}},\"list\":[{\"pressure\":1000,\"humidity\":50," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"speed\":1,\"deg\":0}]}";
+
+    public void testStreamingMatchesDom() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        assertSameForecast(FIXTURE_MOUNTAIN_VIEW, 3);
+        assertSameForecast(FIXTURE_LAT_LON, 2);
+    }
+
+    public void testErrorCode() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        ForecastJsonParser.Forecast dom = ForecastJsonParser.parse(FIXTURE_NOT_FOUND, JULIAN_START_DAY);
+        ForecastJsonParser.Forecast streamed = ForecastJsonParser.parse(
+                asStream(FIXTURE_NOT_FOUND), JULIAN_START_DAY);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, dom.statusCode);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, streamed.statusCode);
+        assertEquals(0, streamed.days.size());
+    }
+
+    public void testBrokenResponses() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        for (String fixture : new String[]{FIXTURE_TRUNCATED, FIXTURE_MISSING_TEMPERATURE}) {
+            try {
+                ForecastJsonParser.parse(fixture, JULIAN_START_DAY);
+                fail("Error: The DOM parser accepted a broken forecast");
+            } catch (JSONException expected) {
+            }
+            try {
+                ForecastJsonParser.parse(asStream(fixture), JULIAN_START_DAY);
+                fail("Error: The streaming parser accepted a broken forecast");
+            } catch (JSONException expected) {
+            } catch (java.io.EOFException expected) {
+                // A body that stops mid-way looks like a dropped connection to JsonReader
+            }
+        }
+    }
+
+    public void testHourly() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        ForecastJsonParser.Forecast forecast = ForecastJsonParser.parseHourly(
+                asStream(FIXTURE_HOURLY));
+        assertEquals(HttpURLConnection.HTTP_OK, forecast.statusCode);
+        assertEquals("Mountain View", forecast.cityName);
+        assertEquals(37.386051, forecast.cityLatitude);
+        assertEquals(0, forecast.days.size());
+        assertEquals("Error: Wrong number of steps streamed", 3, forecast.hours.size());
+
+        ContentValues expected = new ContentValues();
+        expected.put(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR, 1419055200L / 3600);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_TEMP, 98);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, 10036);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, 95);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, 51);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 171);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, 501);
+        expected.put(WeatherContract.HourlyEntry.COLUMN_PRECIPITATION, 213);
+        assertEquals("Error: The scaled step differs", expected, forecast.hours.get(0));
+
+        assertEquals(0, (int) forecast.hours.get(1).getAsInteger(
+                WeatherContract.HourlyEntry.COLUMN_TEMP));
+        assertEquals(0, (int) forecast.hours.get(1).getAsInteger(
+                WeatherContract.HourlyEntry.COLUMN_PRECIPITATION));
+        // Rain and snow add up, whatever order the fields come in
+        assertEquals(1419076800L / 3600, (long) forecast.hours.get(2).getAsLong(
+                WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR));
+        assertEquals(-13, (int) forecast.hours.get(2).getAsInteger(
+                WeatherContract.HourlyEntry.COLUMN_TEMP));
+        assertEquals(75, (int) forecast.hours.get(2).getAsInteger(
+                WeatherContract.HourlyEntry.COLUMN_PRECIPITATION));
+    }
+
+    private void assertSameForecast(String fixture, int expectedDays) throws Throwable {
+        ForecastJsonParser.Forecast dom = ForecastJsonParser.parse(fixture, JULIAN_START_DAY);
+        ForecastJsonParser.Forecast streamed = ForecastJsonParser.parse(
+                asStream(fixture), JULIAN_START_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamed.statusCode);
+        assertEquals(dom.statusCode, streamed.statusCode);
+        assertEquals(dom.cityName, streamed.cityName);
+        assertEquals(dom.cityLatitude, streamed.cityLatitude);
+        assertEquals(dom.cityLongitude, streamed.cityLongitude);
+
+        assertEquals("Error: Wrong number of days parsed", expectedDays, dom.days.size());
+        assertEquals("Error: Wrong number of days streamed", expectedDays, streamed.days.size());
+        for (int i = 0; i < expectedDays; i++) {
+            ContentValues domDay = dom.days.get(i);
+            ContentValues streamedDay = streamed.days.get(i);
+            assertEquals("Error: Day " + i + " differs between the two parsers",
+                    domDay, streamedDay);
+        }
+    }
+
+    static InputStream asStream(String fixture) throws Throwable {
+        return new ByteArrayInputStream(fixture.getBytes("UTF-8"));
+    }
+}
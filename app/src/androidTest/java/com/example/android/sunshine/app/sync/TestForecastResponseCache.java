@@ -0,0 +1,171 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/*
+    Exercises ForecastResponseCache against a local stand-in for OpenWeatherMap.
+ */
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    static final String LAST_MODIFIED = "Sat, 20 Dec 2014 20:00:00 GMT";
+    static final int TODAY = TestForecastJsonParser.JULIAN_START_DAY;
+    static final SunshineHttpClient CLIENT = new SunshineHttpClient(5000, 5000);
+
+    private TestHttpServer mServer;
+    private File mCacheDir;
+    private volatile String mBody = TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW;
+    private volatile String mLastModified = LAST_MODIFIED;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = new File(mContext.getCacheDir(), "test_forecast");
+        new ForecastResponseCache(CLIENT, mCacheDir, 0).clear();
+
+        mServer = new TestHttpServer(new TestHttpServer.Dispatcher() {
+            @Override
+            public TestHttpServer.Response dispatch(TestHttpServer.Request request) {
+                String etag = "\"" + mBody.hashCode() + "\"";
+                // If-None-Match wins over If-Modified-Since when both are sent
+                String ifNoneMatch = request.getHeader("If-None-Match");
+                boolean notModified = ifNoneMatch != null
+                        ? etag.equals(ifNoneMatch)
+                        : mLastModified.equals(request.getHeader("If-Modified-Since"));
+                if (notModified) {
+                    return TestHttpServer.Response.status(304).header("ETag", etag);
+                }
+                return TestHttpServer.Response.ok(mBody)
+                        .header("ETag", etag)
+                        .header("Last-Modified", mLastModified);
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        new ForecastResponseCache(CLIENT, mCacheDir, 0).clear();
+        super.tearDown();
+    }
+
+    public void testConditionalRequest() throws Throwable {
+        ForecastResponseCache cache = new ForecastResponseCache(CLIENT, mCacheDir, 0);
+        URL url = mServer.url("/data/2.5/forecast/daily?q=94043");
+
+        // Cold cache: a plain request, and a body that has to be stored
+        ForecastResponseCache.Response response = cache.fetch(url);
+        assertFalse(response.isFromCache());
+        assertFalse(response.wasStoredOn(TODAY));
+        assertEquals(TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW, readPrefix(response, 200)
+                + readAll(response));
+        response.commit(TODAY);
+        response.close();
+        assertNull(mServer.getRequest(0).getHeader("If-None-Match"));
+
+        // Second fetch revalidates and gets a 304
+        response = cache.fetch(url);
+        assertTrue("Error: A 304 should be served from the cache", response.isFromCache());
+        assertTrue("Error: An unchanged forecast should not be stored again",
+                response.wasStoredOn(TODAY));
+        response.close();
+        assertEquals(2, mServer.getRequestCount());
+        assertNotNull(mServer.getRequest(1).getHeader("If-None-Match"));
+        assertEquals(LAST_MODIFIED, mServer.getRequest(1).getHeader("If-Modified-Since"));
+
+        // Past midnight the same body has to be stored again, from disk
+        response = cache.fetch(url);
+        assertTrue(response.isFromCache());
+        assertFalse(response.wasStoredOn(TODAY + 1));
+        assertEquals(TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW, readAll(response));
+        response.commit(TODAY + 1);
+        response.close();
+    }
+
+    public void testChangedForecastReplacesEntry() throws Throwable {
+        ForecastResponseCache cache = new ForecastResponseCache(CLIENT, mCacheDir, 0);
+        URL url = mServer.url("/data/2.5/forecast/daily?q=94043");
+
+        ForecastResponseCache.Response response = cache.fetch(url);
+        readAll(response);
+        response.commit(TODAY);
+        response.close();
+
+        mBody = TestForecastJsonParser.FIXTURE_LAT_LON;
+        mLastModified = "Sun, 21 Dec 2014 02:00:00 GMT";
+        response = cache.fetch(url);
+        assertFalse("Error: A changed forecast must come from the server", response.isFromCache());
+        assertFalse(response.wasStoredOn(TODAY));
+        assertEquals(TestForecastJsonParser.FIXTURE_LAT_LON, readAll(response));
+        response.commit(TODAY);
+        response.close();
+
+        response = cache.fetch(url);
+        assertEquals(TestForecastJsonParser.FIXTURE_LAT_LON, readAll(response));
+        response.close();
+    }
+
+    public void testUncommittedBodyIsNotCached() throws Throwable {
+        ForecastResponseCache cache = new ForecastResponseCache(CLIENT, mCacheDir, 0);
+        URL url = mServer.url("/data/2.5/forecast/daily?q=99705");
+
+        // e.g. the body failed to parse
+        ForecastResponseCache.Response response = cache.fetch(url);
+        readPrefix(response, 100);
+        response.close();
+
+        response = cache.fetch(url);
+        assertFalse("Error: A body that was never stored must not be revalidated",
+                response.isFromCache());
+        assertNull(mServer.getRequest(1).getHeader("If-None-Match"));
+        response.close();
+    }
+
+    public void testMaxAge() throws Throwable {
+        ForecastResponseCache cache = new ForecastResponseCache(CLIENT, mCacheDir, 60 * 1000);
+        URL url = mServer.url("/data/2.5/forecast/daily?q=94043");
+
+        ForecastResponseCache.Response response = cache.fetch(url);
+        readAll(response);
+        response.commit(TODAY);
+        response.close();
+
+        // Within max-age the server is not asked at all
+        response = cache.fetch(url);
+        assertTrue(response.isFromCache());
+        assertTrue(response.wasStoredOn(TODAY));
+        response.close();
+        assertEquals("Error: A fresh entry should be answered locally", 1,
+                mServer.getRequestCount());
+    }
+
+    private static String readPrefix(ForecastResponseCache.Response response, int length)
+            throws IOException {
+        byte[] buffer = new byte[length];
+        InputStream in = response.getBody();
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) break;
+            offset += read;
+        }
+        return new String(buffer, 0, offset, "UTF-8");
+    }
+
+    static String readAll(ForecastResponseCache.Response response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        InputStream in = response.getBody();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ChangeNotifier;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs ForecastSyncEngine against a local stand-in for OpenWeatherMap that answers every
+    request after a fixed delay, the way a phone on a slow network sees it.
+ */
+public class TestForecastSyncEngine extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastSyncEngine.class.getSimpleName();
+
+    static final int TODAY = TestForecastJsonParser.JULIAN_START_DAY;
+    // Round trip time of every request
+    static final long SERVER_DELAY = 100;
+    static final String UNKNOWN_LOCATION = "nowhere";
+
+    private TestHttpServer mServer;
+    private ForecastResponseCache mResponseCache;
+    private ForecastSyncEngine mEngine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mResponseCache = new ForecastResponseCache(TestForecastResponseCache.CLIENT,
+                new File(mContext.getCacheDir(), "test_sync_engine"), 0);
+        mResponseCache.clear();
+
+        mServer = new TestHttpServer(new TestHttpServer.Dispatcher() {
+            @Override
+            public TestHttpServer.Response dispatch(TestHttpServer.Request request) {
+                if (request.path.contains("q=" + UNKNOWN_LOCATION)) {
+                    return TestHttpServer.Response.ok(TestForecastJsonParser.FIXTURE_NOT_FOUND);
+                }
+                String etag = "\"" + TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW.hashCode() + "\"";
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    return TestHttpServer.Response.status(304).delay(SERVER_DELAY);
+                }
+                return TestHttpServer.Response.ok(TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW)
+                        .header("ETag", etag)
+                        .delay(SERVER_DELAY);
+            }
+        });
+        mServer.start();
+
+        mEngine = new ForecastSyncEngine(mContext.getContentResolver(), mResponseCache,
+                mServer.url("/data/2.5/forecast/daily?").toString(), "test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mEngine.shutdown();
+        mServer.shutdown();
+        mResponseCache.clear();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testSyncStoresEveryLocation() {
+        List<ForecastSyncEngine.LocationQuery> locations =
+                new ArrayList<ForecastSyncEngine.LocationQuery>();
+        locations.add(ForecastSyncEngine.LocationQuery.forCoordinates("Home", 37.39, -122.08));
+        locations.add(ForecastSyncEngine.LocationQuery.forSetting("94043"));
+        locations.add(ForecastSyncEngine.LocationQuery.forSetting("London,UK"));
+        locations.add(ForecastSyncEngine.LocationQuery.forSetting("94043"));
+        locations.add(ForecastSyncEngine.LocationQuery.forSetting(UNKNOWN_LOCATION));
+
+        long notificationsRequested = ChangeNotifier.getRequestedCount();
+        long notificationsSent = ChangeNotifier.getSentCount();
+        ForecastSyncEngine.Result result = mEngine.sync(locations, TODAY);
+        notificationsRequested = ChangeNotifier.getRequestedCount() - notificationsRequested;
+        notificationsSent = ChangeNotifier.getSentCount() - notificationsSent;
+        Log.d(LOG_TAG, "Sync sent " + notificationsSent + " of " + notificationsRequested
+                + " change notifications, saving " + (notificationsRequested - notificationsSent));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus("Home"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus("London,UK"));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                result.getStatus(UNKNOWN_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, result.getStatus("99705"));
+        assertEquals("Error: A duplicated location should only be fetched once", 4,
+                mServer.getRequestCount());
+        assertTrue(mServer.getRequest(0).path.contains("lat=37.39"));
+
+        assertEquals(3, result.getLocationsStored());
+        assertEquals(9, result.getRowsWritten());
+        assertEquals(3, countRows(WeatherContract.LocationEntry.CONTENT_URI));
+        assertEquals(9, countRows(WeatherContract.WeatherEntry.CONTENT_URI));
+        assertEquals(3, countRows(WeatherContract.WeatherEntry.buildWeatherLocation("London,UK")));
+        // One for the new locations, one for the forecast of each, one for the weekly summaries
+        assertEquals("Error: The sync's change notifications were not coalesced",
+                2 + result.getLocationsStored(), notificationsSent);
+
+        // Nothing changed on the server, so the second sync has nothing to write
+        result = mEngine.sync(locations, TODAY);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.getStatus("94043"));
+        assertEquals(0, result.getLocationsStored());
+        assertEquals(9, countRows(WeatherContract.WeatherEntry.CONTENT_URI));
+    }
+
+    public void testSyncIsTraced() {
+        List<ForecastSyncEngine.LocationQuery> locations =
+                new ArrayList<ForecastSyncEngine.LocationQuery>();
+        locations.add(ForecastSyncEngine.LocationQuery.forSetting("94043"));
+        locations.add(ForecastSyncEngine.LocationQuery.forSetting("London,UK"));
+
+        SyncTrace trace = SyncTrace.begin();
+        ForecastSyncEngine.Result result = mEngine.sync(locations, TODAY, trace);
+        trace.finish(locations.size(), result.getRowsWritten());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncTraceEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull("Error: Debug builds should serve the sync traces", cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(2, getLong(cursor, WeatherContract.SyncTraceEntry.COLUMN_LOCATIONS));
+        assertEquals(6, getLong(cursor, WeatherContract.SyncTraceEntry.COLUMN_ROWS_WRITTEN));
+        assertEquals(2, getLong(cursor, WeatherContract.SyncTraceEntry.COLUMN_REQUESTS));
+        assertTrue(getLong(cursor, WeatherContract.SyncTraceEntry.COLUMN_WIRE_BYTES) > 0);
+        assertTrue(getLong(cursor, WeatherContract.SyncTraceEntry.COLUMN_BODY_BYTES)
+                >= TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW.length() * 2);
+        // Each request waited SERVER_DELAY for its headers
+        assertTrue("Error: The server's delay should show up as time to first byte",
+                getDouble(cursor, WeatherContract.SyncTraceEntry.COLUMN_FIRST_BYTE_MS)
+                        >= 2 * SERVER_DELAY);
+        assertTrue(getDouble(cursor, WeatherContract.SyncTraceEntry.COLUMN_STORE_MS) > 0);
+        assertEquals(0.0, getDouble(cursor, WeatherContract.SyncTraceEntry.COLUMN_STORE_HOURLY_MS));
+        for (String column : cursor.getColumnNames()) {
+            Log.d(LOG_TAG, column + ": " + cursor.getString(cursor.getColumnIndex(column)));
+        }
+        cursor.close();
+    }
+
+    /*
+        Times a cold sync of 1, 10 and 50 locations.  Done one after the other, 50 requests would
+        take at least 50 * SERVER_DELAY; in parallel it should take a fraction of that.
+     */
+    public void testSyncBenchmark() {
+        int[] locationCounts = {1, 10, 50};
+        for (int locationCount : locationCounts) {
+            TestUtilities.deleteAllRecords(mContext);
+            mResponseCache.clear();
+
+            List<ForecastSyncEngine.LocationQuery> locations =
+                    new ArrayList<ForecastSyncEngine.LocationQuery>();
+            for (int i = 0; i < locationCount; i++) {
+                locations.add(ForecastSyncEngine.LocationQuery.forSetting("location-" + i));
+            }
+
+            long start = System.nanoTime();
+            ForecastSyncEngine.Result result = mEngine.sync(locations, TODAY);
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            Log.d(LOG_TAG, locationCount + " locations synced in " + elapsedMillis + " ms ("
+                    + (locationCount * SERVER_DELAY) + " ms of server latency)");
+            assertEquals(locationCount, result.getLocationsStored());
+            assertEquals(locationCount * 3, countRows(WeatherContract.WeatherEntry.CONTENT_URI));
+            if (locationCount >= 10) {
+                assertTrue("Error: " + locationCount + " locations took " + elapsedMillis
+                                + " ms, the requests do not seem to overlap",
+                        elapsedMillis < locationCount * SERVER_DELAY / 2);
+            }
+        }
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndex(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndex(column));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+}
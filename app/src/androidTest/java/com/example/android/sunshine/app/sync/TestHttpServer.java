@@ -0,0 +1,253 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP/1.1 server on the loopback interface, standing in for OpenWeatherMap in the sync
+    tests.  It speaks just enough HTTP for HttpURLConnection: GET requests, keep-alive, and
+    Content-Length framed responses.  It also keeps count of what crossed the wire, so tests can
+    check request headers, connection reuse and response sizes.
+ */
+class TestHttpServer {
+
+    interface Dispatcher {
+        Response dispatch(Request request) throws Exception;
+    }
+
+    static class Request {
+        final String method;
+        final String path;
+        // Header names are lower-cased
+        final Map<String, String> headers;
+        // Which accepted connection this request arrived on, starting at 1
+        final int connection;
+
+        Request(String method, String path, Map<String, String> headers, int connection) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.connection = connection;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    static class Response {
+        int status = 200;
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        byte[] body = new byte[0];
+        long delayMillis;
+
+        static Response ok(String body) {
+            Response response = new Response();
+            try {
+                response.body = body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            response.headers.put("Content-Type", "application/json; charset=utf-8");
+            return response;
+        }
+
+        static Response status(int status) {
+            Response response = new Response();
+            response.status = status;
+            return response;
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        Response delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+
+        // Compresses the body the way a server does when the client sent Accept-Encoding: gzip
+        Response gzip() {
+            try {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream out = new GZIPOutputStream(compressed);
+                out.write(body);
+                out.close();
+                body = compressed.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            headers.put("Content-Encoding", "gzip");
+            return this;
+        }
+    }
+
+    private final Dispatcher mDispatcher;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private ServerSocket mServerSocket;
+
+    TestHttpServer(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread("TestHttpServer") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = mServerSocket.accept();
+                        final int connection = mConnectionCount.incrementAndGet();
+                        mSockets.add(socket);
+                        Thread connectionThread = new Thread("TestHttpServer-" + connection) {
+                            @Override
+                            public void run() {
+                                serveConnection(socket, connection);
+                            }
+                        };
+                        connectionThread.setDaemon(true);
+                        connectionThread.start();
+                    }
+                } catch (IOException e) {
+                    // The server socket was closed
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+    }
+
+    URL url(String path) throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    int getRequestCount() {
+        return mRequests.size();
+    }
+
+    Request getRequest(int index) {
+        return mRequests.get(index);
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    private void serveConnection(Socket socket, int connection) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(),
+                            line.substring(colon + 1).trim());
+                }
+                Request request = new Request(parts[0], parts[1], headers, connection);
+                mRequests.add(request);
+
+                Response response;
+                try {
+                    response = mDispatcher.dispatch(request);
+                } catch (Exception e) {
+                    response = Response.status(500);
+                }
+                if (response.delayMillis > 0) {
+                    Thread.sleep(response.delayMillis);
+                }
+                writeResponse(out, response);
+                if ("close".equalsIgnoreCase(request.getHeader("Connection"))) {
+                    break;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+
+    private void writeResponse(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(" Stub\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        boolean hasBody = response.status != 304 && response.status != 204;
+        if (hasBody) {
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(head.toString().getBytes("ISO-8859-1"));
+        if (hasBody) {
+            bytes.write(response.body);
+        }
+        out.write(bytes.toByteArray());
+        out.flush();
+        mBytesWritten.addAndGet(bytes.size());
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
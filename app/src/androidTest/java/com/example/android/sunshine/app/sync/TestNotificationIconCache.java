@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Prefetches condition art into NotificationIconCache through a renderer that stands in for
+    the network, and checks that get() serves it from disk once it is there, that the art pack
+    is part of the key, and that the cache stays within MAX_ENTRIES.
+ */
+public class TestNotificationIconCache extends AndroidTestCase {
+
+    static final int ICON_SIZE = 64;
+
+    // Clear, rain and snow in the Sunshine art pack
+    static final int CLEAR = 800;
+    static final int RAIN = 500;
+    static final int SNOW = 600;
+
+    private final List<String> mRendered = Collections.synchronizedList(new ArrayList<String>());
+    private NotificationIconCache mCache;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        String artPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = getPreferences().getString(artPackKey, null);
+        setArtPack(R.string.pref_art_pack_sunshine);
+
+        mCache = new NotificationIconCache(mContext,
+                new File(mContext.getCacheDir(), "test_notification_icons"),
+                new NotificationIconCache.Renderer() {
+                    @Override
+                    public Bitmap render(String artUrl, int width, int height) {
+                        mRendered.add(artUrl);
+                        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    }
+                }, ICON_SIZE, ICON_SIZE);
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.shutdown();
+        mCache.clear();
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), mSavedArtPack)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testPrefetchedIconsAreServedFromDisk() throws Exception {
+        assertNull("Error: Nothing has been prefetched yet", mCache.get(CLEAR));
+
+        mCache.prefetch(Arrays.asList(CLEAR, RAIN)).get();
+        assertEquals(2, mRendered.size());
+        Bitmap icon = mCache.get(CLEAR);
+        assertNotNull("Error: The prefetched icon should be on disk", icon);
+        assertEquals(ICON_SIZE, icon.getWidth());
+        assertEquals(ICON_SIZE, icon.getHeight());
+
+        // 501 shares the art of 500
+        mCache.prefetch(Arrays.asList(CLEAR, RAIN, 501)).get();
+        assertEquals("Error: Cached art should not be rendered again", 2, mRendered.size());
+    }
+
+    public void testArtPackIsPartOfTheKey() throws Exception {
+        mCache.prefetch(Collections.singletonList(SNOW)).get();
+        assertNotNull(mCache.get(SNOW));
+
+        setArtPack(R.string.pref_art_pack_cute_dogs);
+        assertNull("Error: Another art pack's icon should not be served", mCache.get(SNOW));
+        mCache.prefetch(Collections.singletonList(SNOW)).get();
+        assertNotNull(mCache.get(SNOW));
+        assertEquals(2, mRendered.size());
+    }
+
+    public void testCacheIsTrimmed() throws Exception {
+        // Every condition that has art, in both packs and at two icon sizes, is more than fits
+        List<Integer> weatherIds = Arrays.asList(200, 300, 500, 600, 701, 800, 801, 802);
+        File directory = new File(mContext.getCacheDir(), "test_notification_icons");
+        NotificationIconCache largerCache = new NotificationIconCache(mContext, directory,
+                new NotificationIconCache.Renderer() {
+                    @Override
+                    public Bitmap render(String artUrl, int width, int height) {
+                        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    }
+                }, ICON_SIZE * 2, ICON_SIZE * 2);
+        try {
+            for (int artPack : new int[] {R.string.pref_art_pack_sunshine,
+                    R.string.pref_art_pack_cute_dogs}) {
+                setArtPack(artPack);
+                mCache.prefetch(weatherIds).get();
+                largerCache.prefetch(weatherIds).get();
+            }
+        } finally {
+            largerCache.shutdown();
+        }
+        assertEquals(2 * weatherIds.size(), mRendered.size());
+        File[] icons = directory.listFiles();
+        assertNotNull(icons);
+        assertEquals("Error: The cache should keep the most recently used icons only",
+                NotificationIconCache.MAX_ENTRIES, icons.length);
+        assertNull("Error: Unknown conditions have no art", mCache.get(900));
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setArtPack(int artPackId) {
+        final String artPack = mContext.getString(artPackId);
+        getPreferences().edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), artPack)
+                .commit();
+        // The art URLs are reformatted once the change reaches the main thread
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return String.format(Locale.US, artPack, "clear").equals(
+                        Utility.getArtUrlForWeatherCondition(mContext, CLEAR));
+            }
+        }.run();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.Random;
+
+/*
+    Fails syncs against RetryPolicy on a hand-driven clock: the delays have to grow and stay
+    jittered within their bounds, the circuit has to open after FAILURE_THRESHOLD failures and
+    let a single trial through once the cool-down is over, and the location status has to say
+    so while it is open.
+ */
+public class TestRetryPolicy extends AndroidTestCase {
+
+    private final TestSyncScheduler.TestClock mClock = new TestSyncScheduler.TestClock();
+    private RetryPolicy mPolicy;
+    private int mSavedStatus;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock.now = 1419033600000L;
+        mPolicy = new RetryPolicy(mContext, mClock, new Random(42));
+        mSavedStatus = getPreferences().getInt(
+                mContext.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        clearState();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearState();
+        getPreferences().edit()
+                .putInt(mContext.getString(R.string.pref_location_status_key), mSavedStatus)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testBackoffIsJitteredAndCapped() {
+        for (int failures = 1; failures <= 40; failures++) {
+            long delay = Math.min(RetryPolicy.MAX_BACKOFF_MILLIS,
+                    failures > 30 ? Long.MAX_VALUE
+                            : RetryPolicy.BASE_BACKOFF_MILLIS << (failures - 1));
+            for (int i = 0; i < 20; i++) {
+                long backoff = mPolicy.getBackoffMillis(failures);
+                assertTrue("Error: Backoff " + backoff + " after " + failures + " failures is out"
+                                + " of bounds", backoff >= delay / 2 && backoff <= delay);
+            }
+        }
+    }
+
+    public void testCircuitOpensAndRecovers() {
+        assertEquals(RetryPolicy.STATE_CLOSED, mPolicy.getState());
+
+        long lastDelay = 0;
+        for (int i = 1; i < RetryPolicy.FAILURE_THRESHOLD; i++) {
+            long delay = mPolicy.onFailure() - mClock.now;
+            assertTrue(delay > 0);
+            assertTrue("Error: A failure should not open the circuit on its own",
+                    mPolicy.allowRequest());
+            lastDelay = delay;
+        }
+        long retryAt = mPolicy.onFailure();
+        assertTrue("Error: The cool-down should be at least COOL_DOWN_MILLIS",
+                retryAt - mClock.now >= Math.max(lastDelay, RetryPolicy.COOL_DOWN_MILLIS));
+        assertEquals(RetryPolicy.STATE_OPEN, mPolicy.getState());
+        assertFalse(mPolicy.allowRequest());
+
+        mClock.now = retryAt;
+        assertEquals("Error: The cool-down is over, so a trial sync should be let through",
+                RetryPolicy.STATE_HALF_OPEN, mPolicy.getState());
+        // The trial fails, and the circuit opens again
+        retryAt = mPolicy.onFailure();
+        assertEquals(RetryPolicy.STATE_OPEN, mPolicy.getState());
+
+        mClock.now = retryAt;
+        mPolicy.onSuccess();
+        assertEquals(RetryPolicy.STATE_CLOSED, mPolicy.getState());
+        assertEquals(0, mPolicy.getRetryAt());
+    }
+
+    public void testLocationStatusShowsTheOpenCircuit() {
+        // Utility reads the state against the real clock
+        RetryPolicy policy = new RetryPolicy(mContext);
+        getPreferences().edit().putInt(mContext.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN).commit();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+
+        for (int i = 0; i < RetryPolicy.FAILURE_THRESHOLD; i++) {
+            policy.onFailure();
+        }
+        assertTrue("Error: The circuit should read as open without a policy",
+                RetryPolicy.isOpen(mContext));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_BACKING_OFF,
+                Utility.getLocationStatus(mContext));
+
+        policy.onSuccess();
+        assertFalse(RetryPolicy.isOpen(mContext));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void clearState() {
+        getPreferences().edit()
+                .remove(mContext.getString(R.string.pref_sync_failures_key))
+                .remove(mContext.getString(R.string.pref_sync_retry_at_key))
+                .commit();
+    }
+}
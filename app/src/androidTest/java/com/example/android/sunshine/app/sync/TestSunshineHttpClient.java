@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+/*
+    Checks what SunshineHttpClient puts on the wire: gzip negotiation, connection reuse and
+    timeouts, measured on a local server that counts bytes and TCP connections.
+ */
+public class TestSunshineHttpClient extends AndroidTestCase {
+    public static final String LOG_TAG = TestSunshineHttpClient.class.getSimpleName();
+
+    private TestHttpServer mServer;
+    private String mForecast;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A forecast about the size of a 14 day response
+        StringBuilder forecast = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            forecast.append(TestForecastJsonParser.FIXTURE_MOUNTAIN_VIEW);
+        }
+        mForecast = forecast.toString();
+
+        mServer = new TestHttpServer(new TestHttpServer.Dispatcher() {
+            @Override
+            public TestHttpServer.Response dispatch(TestHttpServer.Request request) {
+                TestHttpServer.Response response = TestHttpServer.Response.ok(mForecast);
+                if (request.path.startsWith("/slow")) {
+                    response.delay(1500);
+                }
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response.gzip();
+                }
+                return response;
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testGzip() throws Throwable {
+        SunshineHttpClient client = new SunshineHttpClient(5000, 5000);
+        SunshineHttpClient.Response response = client.get(mServer.url("/forecast"), null);
+        assertEquals(200, response.getCode());
+        assertEquals(mForecast, readAll(response.getBody()));
+        long wireBytes = response.getWireBytes();
+        response.close();
+
+        assertEquals("gzip", mServer.getRequest(0).getHeader("Accept-Encoding"));
+        long rawBytes = mForecast.getBytes("UTF-8").length;
+        Log.d(LOG_TAG, "Forecast body: " + rawBytes + " bytes, " + wireBytes + " on the wire, " +
+                mServer.getBytesWritten() + " including headers");
+        assertTrue("Error: The body should arrive compressed", wireBytes < rawBytes / 2);
+        assertTrue(mServer.getBytesWritten() < rawBytes / 2);
+    }
+
+    public void testConnectionReuse() throws Throwable {
+        SunshineHttpClient client = new SunshineHttpClient(5000, 5000);
+        for (int i = 0; i < 5; i++) {
+            SunshineHttpClient.Response response = client.get(mServer.url("/forecast?i=" + i), null);
+            if (i % 2 == 0) {
+                assertEquals(mForecast, readAll(response.getBody()));
+            } else {
+                // Stopping half way (e.g. a parser that stops at the closing brace) must not
+                // cost the connection either
+                response.getBody().read(new byte[16]);
+            }
+            response.close();
+        }
+        assertEquals(5, mServer.getRequestCount());
+        Log.d(LOG_TAG, "5 requests over " + mServer.getConnectionCount() + " connection(s)");
+        assertEquals("Error: Sequential requests should share one connection", 1,
+                mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Throwable {
+        SunshineHttpClient client = new SunshineHttpClient(5000, 300);
+        long start = System.currentTimeMillis();
+        try {
+            SunshineHttpClient.Response response = client.get(mServer.url("/slow"), null);
+            response.close();
+            fail("Error: A server slower than the read timeout should fail the request");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+}
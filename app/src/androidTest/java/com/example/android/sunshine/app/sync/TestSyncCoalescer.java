@@ -0,0 +1,66 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Replays the bursts of immediate syncs the settings screen makes, such as a Place Picker
+    result, which changes the location preference and then asks for a sync of its own, and
+    checks that only the first request of a burst asks the SyncManager for a sync.
+ */
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    static final String LOCATION = "94043";
+    static final String OTHER_LOCATION = "99705";
+
+    private final TestSyncScheduler.TestClock mClock = new TestSyncScheduler.TestClock();
+    private SyncCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock.now = 1419033600000L;
+        mCoalescer = new SyncCoalescer(mClock);
+    }
+
+    public void testQueuedAndRunningSyncsServeLaterRequests() {
+        assertTrue(mCoalescer.request(LOCATION));
+        assertFalse("Error: A queued sync should absorb a second request",
+                mCoalescer.request(LOCATION));
+        assertTrue("Error: Another location needs a sync of its own",
+                mCoalescer.request(OTHER_LOCATION));
+
+        List<String> synced = Arrays.asList(LOCATION, OTHER_LOCATION);
+        mCoalescer.onSyncStarted(synced);
+        assertFalse("Error: A running sync should serve a late request",
+                mCoalescer.request(LOCATION));
+
+        assertEquals(2, mCoalescer.onSyncFinished(synced));
+        assertTrue("Error: Once the sync is done, the next request needs a new one",
+                mCoalescer.request(LOCATION));
+    }
+
+    public void testPeriodicSyncServesRequests() {
+        List<String> synced = Collections.singletonList(LOCATION);
+        mCoalescer.onSyncStarted(synced);
+        assertFalse(mCoalescer.request(LOCATION));
+        assertEquals(1, mCoalescer.onSyncFinished(synced));
+        assertEquals(0, mCoalescer.onSyncFinished(synced));
+    }
+
+    public void testLostSyncsStopHoldingRequests() {
+        assertTrue(mCoalescer.request(LOCATION));
+        mClock.now += SyncCoalescer.QUEUED_TIMEOUT_MILLIS;
+        assertTrue("Error: A sync that never started should not hold requests back forever",
+                mCoalescer.request(LOCATION));
+
+        mCoalescer.onSyncStarted(Collections.singletonList(LOCATION));
+        mClock.now += SyncCoalescer.QUEUED_TIMEOUT_MILLIS;
+        assertFalse("Error: A running sync has longer to finish", mCoalescer.request(LOCATION));
+        mClock.now += SyncCoalescer.RUNNING_TIMEOUT_MILLIS;
+        assertTrue(mCoalescer.request(LOCATION));
+    }
+}
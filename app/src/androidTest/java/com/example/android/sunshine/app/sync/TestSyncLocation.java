@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Changes the location while SettingsSnapshot has not heard about it yet, the way it is when
+    another preference listener is called before the snapshot's, and checks that a sync asked
+    for from that listener is for the new location.
+ */
+public class TestSyncLocation extends AndroidTestCase {
+
+    static final String OLD_LOCATION = "94043";
+    static final String NEW_LOCATION = "99705";
+
+    private String mSavedLocation;
+    private String mLocationKey;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = getPreferences().getString(mLocationKey, null);
+        getPreferences().edit().putString(mLocationKey, OLD_LOCATION).commit();
+        SettingsSnapshot.invalidate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getPreferences().edit().putString(mLocationKey, mSavedLocation).commit();
+        SettingsSnapshot.invalidate();
+        super.tearDown();
+    }
+
+    public void testSyncFollowsLocationBeforeSnapshotDoes() throws Exception {
+        assertEquals(OLD_LOCATION, Utility.getPreferredLocation(mContext));
+
+        final String[] synced = new String[1];
+        final String[] preferred = new String[1];
+        SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                  String key) {
+                // What SettingsActivity does
+                if (mLocationKey.equals(key)) {
+                    synced[0] = SunshineSyncAdapter.getLocationToSync(mContext);
+                    SettingsSnapshot.invalidate();
+                    preferred[0] = Utility.getPreferredLocation(mContext);
+                }
+            }
+        };
+        getPreferences().registerOnSharedPreferenceChangeListener(listener);
+
+        // Holds the main thread, so that no listener hears about the commit below yet
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch held = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                held.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            assertTrue(held.await(5, TimeUnit.SECONDS));
+            getPreferences().edit().putString(mLocationKey, NEW_LOCATION).commit();
+            assertEquals("Error: A sync should be for the location just committed",
+                    NEW_LOCATION, SunshineSyncAdapter.getLocationToSync(mContext));
+        } finally {
+            release.countDown();
+        }
+
+        waitForMainThread();
+        getPreferences().unregisterOnSharedPreferenceChangeListener(listener);
+        assertEquals("Error: The listener should sync the new location",
+                NEW_LOCATION, synced[0]);
+        assertEquals("Error: An invalidated snapshot should hold the new location",
+                NEW_LOCATION, preferred[0]);
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private static void waitForMainThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.R;
+
+/*
+    Drives SyncScheduler with a clock the test moves by hand, through a quiet night, a busy
+    forecast, a weather alert and a flat battery, and checks the intervals it picks.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    static final int HOUR = 60 * 60;
+
+    private final TestClock mClock = new TestClock();
+    private SyncScheduler mScheduler;
+    // 07:00 local time, on a Saturday
+    private long mMorning;
+
+    static class TestClock implements SyncScheduler.Clock {
+        long now;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new SyncScheduler(mContext, mClock);
+        Time time = new Time();
+        time.set(0, 0, 7, 20, 11, 2014);
+        mMorning = time.toMillis(true);
+        clearUsage();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearUsage();
+        super.tearDown();
+    }
+
+    public void testQuietForecastBacksOff() {
+        mClock.now = mMorning + 3 * hours(1);
+        SyncScheduler.Signals signals = new SyncScheduler.Signals()
+                .setSyncResult(1, 0)
+                .setUsage(mClock.now - hours(1), 0);
+
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        int[] expected = {6 * HOUR, 12 * HOUR, SyncScheduler.MAX_SYNC_INTERVAL};
+        for (int next : expected) {
+            interval = mScheduler.getNextInterval(interval, signals);
+            assertEquals("Error: An unchanged forecast should be checked less often",
+                    next, interval);
+        }
+    }
+
+    public void testMovingForecastSyncsSooner() {
+        mClock.now = mMorning + 3 * hours(1);
+        // Four changed days for each of two locations
+        SyncScheduler.Signals signals = new SyncScheduler.Signals()
+                .setSyncResult(2, 8)
+                .setUsage(mClock.now - hours(1), 0);
+
+        int interval = mScheduler.getNextInterval(SunshineSyncAdapter.SYNC_INTERVAL, signals);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL / 2, interval);
+        interval = mScheduler.getNextInterval(interval, signals);
+        assertEquals(SyncScheduler.MIN_SYNC_INTERVAL, interval);
+    }
+
+    public void testQuietNightEndsBeforeTheFirstOpen() {
+        // Opened first at 07:00 and last at 22:00; it is now 02:30 the next day
+        mClock.now = mMorning + hours(19) + hours(1) / 2;
+        SyncScheduler.Signals signals = new SyncScheduler.Signals()
+                .setSyncResult(1, 0)
+                .setUsage(mMorning + hours(15), mMorning);
+
+        // Six hours would be enough overnight, but the sync has to be done by 06:30
+        assertEquals(4 * HOUR,
+                mScheduler.getNextInterval(SunshineSyncAdapter.SYNC_INTERVAL, signals));
+
+        // Once the user stops opening the app, there is no morning to be ready for
+        mClock.now += SyncScheduler.INACTIVE_MILLIS;
+        assertEquals(SyncScheduler.AWAY_SYNC_INTERVAL,
+                mScheduler.getNextInterval(SunshineSyncAdapter.SYNC_INTERVAL, signals));
+    }
+
+    public void testAlertSyncsAtTheMinimum() {
+        mClock.now = mMorning;
+        SyncScheduler.Signals signals = new SyncScheduler.Signals()
+                .setSyncResult(1, 0)
+                .setLastAlert(mClock.now - hours(1));
+        assertEquals(SyncScheduler.MIN_SYNC_INTERVAL,
+                mScheduler.getNextInterval(SyncScheduler.MAX_SYNC_INTERVAL, signals));
+
+        mClock.now += SyncScheduler.ALERT_MILLIS;
+        assertTrue("Error: An old alert should not hold the interval down",
+                mScheduler.getNextInterval(SyncScheduler.MAX_SYNC_INTERVAL, signals)
+                        > SyncScheduler.MIN_SYNC_INTERVAL);
+    }
+
+    public void testLowBatteryAndMeteredNetworkSyncLess() {
+        mClock.now = mMorning + 3 * hours(1);
+        SyncScheduler.Signals signals = new SyncScheduler.Signals()
+                .setSyncResult(1, 1)
+                .setUsage(mClock.now - hours(1), 0)
+                .setBattery(false, 15);
+        assertEquals(4 * HOUR, mScheduler.getNextInterval(HOUR, signals));
+
+        signals.setBattery(true, 15).setMetered(true);
+        assertEquals("Error: A charging phone should not hold back",
+                2 * HOUR, mScheduler.getNextInterval(HOUR, signals));
+
+        signals.setBattery(false, 80);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, mScheduler.getNextInterval(HOUR, signals));
+    }
+
+    public void testRecordAppOpenedKeepsTheFirstOpenOfTheDay() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String firstKey = mContext.getString(R.string.pref_first_opened_key);
+        String lastKey = mContext.getString(R.string.pref_last_opened_key);
+
+        mClock.now = mMorning;
+        mScheduler.recordAppOpened();
+        mClock.now = mMorning + hours(15);
+        mScheduler.recordAppOpened();
+        assertEquals(mMorning, prefs.getLong(firstKey, 0));
+        assertEquals(mMorning + hours(15), prefs.getLong(lastKey, 0));
+
+        mClock.now = mMorning + hours(25);
+        mScheduler.recordAppOpened();
+        assertEquals("Error: A new day should start a new first open",
+                mMorning + hours(25), prefs.getLong(firstKey, 0));
+    }
+
+    private static long hours(int hours) {
+        return hours * SyncScheduler.HOUR_IN_MILLIS;
+    }
+
+    private void clearUsage() {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(mContext.getString(R.string.pref_first_opened_key))
+                .remove(mContext.getString(R.string.pref_last_opened_key))
+                .remove(mContext.getString(R.string.pref_last_alert_key))
+                .commit();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The labels Utility gives days, made once per Julian day and kept until they go stale, so that
+ * binding a row returns a label that is already made instead of allocating a Time and a
+ * SimpleDateFormat for it.  The labels are relative to today, so they are all dropped at local
+ * midnight, and whenever the locale, the time zone or the clock changes.
+ */
+class DayLabels {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // More days than any screen shows at once; past that the labels are made afresh
+    private static final int MAX_DAYS = 64;
+
+    private static class Labels {
+        String dayName;
+        String monthDay;
+        String fullFriendly;
+        // The getFriendlyDayString() label, with and without the long form of today
+        String friendly;
+        String friendlyLongToday;
+    }
+
+    private static final SparseArray<Labels> sLabels = new SparseArray<Labels>();
+
+    // What the labels were made for; a null sLocale or sTimeZone makes them stale
+    private static Locale sLocale;
+    private static TimeZone sTimeZone;
+    private static long sGmtOffSeconds;
+    private static int sToday;
+    private static long sTodayStart;
+
+    private static SimpleDateFormat sDayNameFormat;
+    private static SimpleDateFormat sMonthDayFormat;
+    private static SimpleDateFormat sShortDateFormat;
+
+    private static BroadcastReceiver sReceiver;
+
+    private DayLabels() {
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    static synchronized String getFriendlyDayString(Context context, long dateInMillis,
+                                                    boolean displayLongToday) {
+        Labels labels = getLabels(context, dateInMillis);
+        return displayLongToday ? labels.friendlyLongToday : labels.friendly;
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    static synchronized String getFullFriendlyDayString(Context context, long dateInMillis) {
+        return getLabels(context, dateInMillis).fullFriendly;
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    static synchronized String getDayName(Context context, long dateInMillis) {
+        return getLabels(context, dateInMillis).dayName;
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    static synchronized String getFormattedMonthDay(Context context, long dateInMillis) {
+        return getLabels(context, dateInMillis).monthDay;
+    }
+
+    /**
+     * Drops every label, so that the next one is made for the current locale and time zone.
+     */
+    static synchronized void invalidate() {
+        sLocale = null;
+        sTimeZone = null;
+        sLabels.clear();
+    }
+
+    private static Labels getLabels(Context context, long dateInMillis) {
+        long now = System.currentTimeMillis();
+        if (sLocale != Locale.getDefault() || sTimeZone == null
+                || now < sTodayStart || now >= sTodayStart + DAY_IN_MILLIS) {
+            reset(context, now);
+        }
+        int julianDay = Time.getJulianDay(dateInMillis, sGmtOffSeconds);
+        Labels labels = sLabels.get(julianDay);
+        if (labels == null) {
+            if (sLabels.size() >= MAX_DAYS) {
+                sLabels.clear();
+            }
+            labels = makeLabels(context, julianDay, dateInMillis);
+            sLabels.put(julianDay, labels);
+        }
+        return labels;
+    }
+
+    private static void reset(Context context, long now) {
+        if (sReceiver == null) {
+            sReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    invalidate();
+                }
+            };
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_DATE_CHANGED);
+            Context appContext = context.getApplicationContext();
+            (appContext != null ? appContext : context).registerReceiver(sReceiver, filter);
+        }
+
+        sLabels.clear();
+        sLocale = Locale.getDefault();
+        sTimeZone = TimeZone.getDefault();
+        sGmtOffSeconds = sTimeZone.getOffset(now) / 1000;
+        sToday = Time.getJulianDay(now, sGmtOffSeconds);
+        sTodayStart = (sToday - Time.EPOCH_JULIAN_DAY) * DAY_IN_MILLIS
+                - sGmtOffSeconds * 1000;
+
+        sDayNameFormat = new SimpleDateFormat("EEEE", sLocale);
+        sMonthDayFormat = new SimpleDateFormat("MMMM dd", sLocale);
+        sShortDateFormat = new SimpleDateFormat("EEE MMM dd", sLocale);
+        sDayNameFormat.setTimeZone(sTimeZone);
+        sMonthDayFormat.setTimeZone(sTimeZone);
+        sShortDateFormat.setTimeZone(sTimeZone);
+    }
+
+    private static Labels makeLabels(Context context, int julianDay, long dateInMillis) {
+        Labels labels = new Labels();
+        // E.g "Today", "Tomorrow", "Wednesday"
+        if (julianDay == sToday) {
+            labels.dayName = context.getString(R.string.today);
+        } else if (julianDay == sToday + 1) {
+            labels.dayName = context.getString(R.string.tomorrow);
+        } else {
+            labels.dayName = sDayNameFormat.format(dateInMillis);
+        }
+        // E.g "June 24"
+        labels.monthDay = sMonthDayFormat.format(dateInMillis);
+        // E.g "Wednesday, June 24"
+        labels.fullFriendly = context.getString(R.string.format_full_friendly_date,
+                labels.dayName, labels.monthDay);
+
+        // The day name for the coming week, and "Mon Jun 3" after that
+        if (julianDay < sToday + 7) {
+            labels.friendly = labels.dayName;
+        } else {
+            labels.friendly = sShortDateFormat.format(dateInMillis);
+        }
+        // "Today, June 24" where there is room for it
+        labels.friendlyLongToday = julianDay == sToday ? labels.fullFriendly : labels.friendly;
+        return labels;
+    }
+}
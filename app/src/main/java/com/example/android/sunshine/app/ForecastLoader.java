@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+
+/**
+ * Loads the forecast for ForecastAdapter, and makes its rows on the loader's background thread
+ * as well, so that the adapter does no formatting while the list scrolls.  The cursor it
+ * delivers is a RowCursor, which carries the rows along.
+ *
+ * The rows' date labels, such as "Today", are made for the day of the load, so the loader
+ * loads again once the day changes, as it does when the forecast does.  Every load starts from
+ * the day it runs on.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, with the rows made from it.
+     */
+    static class RowCursor extends CursorWrapper {
+        private final List<ForecastRow> mRows;
+
+        RowCursor(Cursor cursor, List<ForecastRow> rows) {
+            super(cursor);
+            mRows = rows;
+        }
+
+        List<ForecastRow> getRows() {
+            return mRows;
+        }
+    }
+
+    private final String mLocationSetting;
+    private BroadcastReceiver mDayChangedReceiver;
+
+    /**
+     * @param locationSetting the location whose forecast to load, from today on
+     */
+    ForecastLoader(Context context, String locationSetting, String[] projection,
+                   String sortOrder) {
+        super(context, null, projection, null, null, sortOrder);
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mDayChangedReceiver == null) {
+            // Kept until the loader is reset, so a change while stopped reloads once started
+            mDayChangedReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    onContentChanged();
+                }
+            };
+            IntentFilter filter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            getContext().registerReceiver(mDayChangedReceiver, filter);
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        if (mDayChangedReceiver != null) {
+            getContext().unregisterReceiver(mDayChangedReceiver);
+            mDayChangedReceiver = null;
+        }
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        setUri(WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                mLocationSetting, System.currentTimeMillis()));
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return new RowCursor(cursor, ForecastRow.fromCursor(getContext(), cursor));
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a row of the forecast list shows, with every string already made, so that binding the
+ * row only has to set them on its views.  Rows are made off the main thread by ForecastLoader,
+ * against the settings and the day of the moment; a settings change that alters them restarts
+ * the loader, and a new day makes it load again.
+ */
+class ForecastRow {
+    final int weatherId;
+    final long date;
+    // The art the today row falls back on, and the icon of the other rows
+    final int artResource;
+    final int iconResource;
+    // Null when using local graphics
+    final String artUrl;
+    final String transitionName;
+    final String friendlyDate;
+    final String friendlyDateLongToday;
+    final String description;
+    final String descriptionA11y;
+    final String high;
+    final String highA11y;
+    final String low;
+    final String lowA11y;
+
+    private ForecastRow(Context context, SettingsSnapshot settings, Cursor cursor, int position) {
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = settings.usingLocalGraphics()
+                ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view
+        transitionName = "iconView" + position;
+
+        friendlyDate = Utility.getFriendlyDayString(context, date, false);
+        friendlyDateLongToday = Utility.getFriendlyDayString(context, date, true);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        high = settings.formatTemperature(cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highA11y = context.getString(R.string.a11y_high_temp, high);
+        low = settings.formatTemperature(cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowA11y = context.getString(R.string.a11y_low_temp, low);
+    }
+
+    /**
+     * Makes the rows of a cursor over ForecastFragment.FORECAST_COLUMNS.  The cursor is left
+     * before its first row.
+     *
+     * @return the rows, in the order of the cursor; the list cannot be modified
+     */
+    static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        List<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new ForecastRow(context, settings, cursor, cursor.getPosition()));
+        }
+        cursor.moveToPosition(-1);
+        return Collections.unmodifiableList(rows);
+    }
+}
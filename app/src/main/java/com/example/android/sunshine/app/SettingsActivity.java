@@ -153,6 +153,8 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // The snapshot's own listener may not have been called yet
+        SettingsSnapshot.invalidate();
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
@@ -160,6 +162,7 @@ public class SettingsActivity extends PreferenceActivity
             editor.remove(getString(R.string.pref_location_latitude));
             editor.remove(getString(R.string.pref_location_longitude));
             editor.commit();
+            SettingsSnapshot.invalidate();
 
             // Remove attributions for our any PlacePicker locations.
             if (mAttribution != null) {
@@ -216,6 +219,7 @@ public class SettingsActivity extends PreferenceActivity
                 editor.putFloat(getString(R.string.pref_location_longitude),
                         (float) latLong.longitude);
                 editor.commit();
+                SettingsSnapshot.invalidate();
 
                 // Tell the SyncAdapter that we've changed the location, so that we can update
                 // our UI with new values. We need to do this manually because we are responding
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The settings that views and the sync read over and over, loaded from the shared preferences
+ * once, so that hot paths read a field instead of looking a preference up by a key resource.
+ * A snapshot never changes: get() hands out the latest one, and a new one is loaded once one
+ * of its preferences changes, or the locale does, since the defaults and formats it holds are
+ * resources.
+ *
+ * The snapshot hears about preference changes through a listener, which is only called on the
+ * main thread, in no particular order with the other listeners.  So code that writes one of its
+ * preferences calls invalidate() right after, and listeners that act on one call it first.
+ */
+public class SettingsSnapshot {
+
+    // The latest snapshot, or null once it is stale
+    private static volatile SettingsSnapshot sSnapshot;
+    // Kept here since SharedPreferences only holds on to its listeners weakly
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final Locale mLocale;
+    private final String mLocation;
+    private final boolean mLocationLatLonAvailable;
+    private final float mLocationLatitude;
+    private final float mLocationLongitude;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final boolean mNotificationsEnabled;
+    private final String mTemperatureFormat;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        mLocale = Locale.getDefault();
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        mLocationLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        mLocationLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        mLocationLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        mLocalGraphics = mArtPack.equals(sunshineArtPack);
+
+        mNotificationsEnabled = prefs.getBoolean(
+                context.getString(R.string.pref_enable_notifications_key),
+                Boolean.parseBoolean(
+                        context.getString(R.string.pref_enable_notifications_default)));
+        mTemperatureFormat = context.getString(R.string.format_temperature);
+    }
+
+    /**
+     * @return the current settings
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sSnapshot;
+        if (snapshot == null || snapshot.mLocale != Locale.getDefault()) {
+            snapshot = load(context);
+        }
+        return snapshot;
+    }
+
+    private static synchronized SettingsSnapshot load(Context context) {
+        SettingsSnapshot snapshot = sSnapshot;
+        if (snapshot != null && snapshot.mLocale == Locale.getDefault()) {
+            // Loaded by another thread in the meantime
+            return snapshot;
+        }
+        Context appContext = context.getApplicationContext();
+        if (appContext != null) {
+            context = appContext;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sListener == null) {
+            final Set<String> keys = new HashSet<String>(Arrays.asList(
+                    context.getString(R.string.pref_location_key),
+                    context.getString(R.string.pref_location_latitude),
+                    context.getString(R.string.pref_location_longitude),
+                    context.getString(R.string.pref_units_key),
+                    context.getString(R.string.pref_art_pack_key),
+                    context.getString(R.string.pref_enable_notifications_key)));
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                      String key) {
+                    if (keys.contains(key)) {
+                        invalidate();
+                    }
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        snapshot = new SettingsSnapshot(context, prefs);
+        sSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Drops the latest snapshot, so that the next get() loads the preferences as they are now.
+     */
+    public static synchronized void invalidate() {
+        sSnapshot = null;
+    }
+
+    /**
+     * @return the preferred location setting, e.g. "94043" or "London,UK"
+     */
+    public String getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * @return whether the preferred location came with coordinates, from the Place Picker
+     */
+    public boolean isLocationLatLonAvailable() {
+        return mLocationLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLocationLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLocationLongitude;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the URL format of the art pack in use, with the art's name as its argument
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    /**
+     * @return true if the art pack in use is the one bundled with the app
+     */
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    public boolean areNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+
+    /**
+     * @param temperature in Celsius, as stored
+     * @return the temperature in the preferred units, with a degree sign
+     */
+    public String formatTemperature(double temperature) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!mMetric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        return String.format(mTemperatureFormat, temperature);
+    }
+}
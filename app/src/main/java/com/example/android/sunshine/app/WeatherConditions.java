@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * What to show for each weather condition OpenWeatherMap reports, looked up in tables indexed
+ * by weatherId that are built once, instead of running through the ranges of condition codes on
+ * every bind.  The art URLs depend on the art pack; they are formatted once for the art pack
+ * in the current SettingsSnapshot, and again once it holds another one.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+class WeatherConditions {
+
+    static final int MIN_WEATHER_ID = 200;
+    static final int MAX_WEATHER_ID = 962;
+
+    // The art of a condition, an index into the arrays below
+    private static final int ART_NONE = -1;
+    private static final int ART_STORM = 0;
+    private static final int ART_LIGHT_RAIN = 1;
+    private static final int ART_RAIN = 2;
+    private static final int ART_SNOW = 3;
+    private static final int ART_FOG = 4;
+    private static final int ART_CLEAR = 5;
+    private static final int ART_LIGHT_CLOUDS = 6;
+    private static final int ART_CLOUDS = 7;
+
+    private static final int[] ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ARTS = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // The name of the art in the art pack URLs
+    private static final String[] ART_NAMES = {
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    // The images Muzei shows
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+    // Tornadoes have storm art, but an image of their own
+    private static final int TORNADO = 781;
+    private static final String TORNADO_IMAGE_URL =
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+
+    // The description of each condition that has one of its own, as pairs of weatherId and
+    // string resource
+    private static final int[] STRINGS = {
+            500, R.string.condition_500,
+            501, R.string.condition_501,
+            502, R.string.condition_502,
+            503, R.string.condition_503,
+            504, R.string.condition_504,
+            511, R.string.condition_511,
+            520, R.string.condition_520,
+            531, R.string.condition_531,
+            600, R.string.condition_600,
+            601, R.string.condition_601,
+            602, R.string.condition_602,
+            611, R.string.condition_611,
+            612, R.string.condition_612,
+            615, R.string.condition_615,
+            616, R.string.condition_616,
+            620, R.string.condition_620,
+            621, R.string.condition_621,
+            622, R.string.condition_622,
+            701, R.string.condition_701,
+            711, R.string.condition_711,
+            721, R.string.condition_721,
+            731, R.string.condition_731,
+            741, R.string.condition_741,
+            751, R.string.condition_751,
+            761, R.string.condition_761,
+            762, R.string.condition_762,
+            771, R.string.condition_771,
+            781, R.string.condition_781,
+            800, R.string.condition_800,
+            801, R.string.condition_801,
+            802, R.string.condition_802,
+            803, R.string.condition_803,
+            804, R.string.condition_804,
+            900, R.string.condition_900,
+            901, R.string.condition_901,
+            902, R.string.condition_902,
+            903, R.string.condition_903,
+            904, R.string.condition_904,
+            905, R.string.condition_905,
+            906, R.string.condition_906,
+            951, R.string.condition_951,
+            952, R.string.condition_952,
+            953, R.string.condition_953,
+            954, R.string.condition_954,
+            955, R.string.condition_955,
+            956, R.string.condition_956,
+            957, R.string.condition_957,
+            958, R.string.condition_958,
+            959, R.string.condition_959,
+            960, R.string.condition_960,
+            961, R.string.condition_961,
+            962, R.string.condition_962
+    };
+
+    // Indexed by weatherId - MIN_WEATHER_ID
+    private static final byte[] sArt = new byte[MAX_WEATHER_ID - MIN_WEATHER_ID + 1];
+    private static final int[] sStringIds = new int[MAX_WEATHER_ID - MIN_WEATHER_ID + 1];
+
+    // The art URLs of the art pack last asked for, or null until they are needed
+    private static volatile ArtUrls sArtUrls;
+
+    static {
+        for (int weatherId = MIN_WEATHER_ID; weatherId <= MAX_WEATHER_ID; weatherId++) {
+            sArt[weatherId - MIN_WEATHER_ID] = (byte) getArtForRange(weatherId);
+        }
+        for (int weatherId = 200; weatherId <= 232; weatherId++) {
+            sStringIds[weatherId - MIN_WEATHER_ID] = R.string.condition_2xx;
+        }
+        for (int weatherId = 300; weatherId <= 321; weatherId++) {
+            sStringIds[weatherId - MIN_WEATHER_ID] = R.string.condition_3xx;
+        }
+        for (int i = 0; i < STRINGS.length; i += 2) {
+            sStringIds[STRINGS[i] - MIN_WEATHER_ID] = STRINGS[i + 1];
+        }
+    }
+
+    /**
+     * The art URLs of an art pack, indexed like ARTS.
+     */
+    private static class ArtUrls {
+        final String artPack;
+        final String[] urls = new String[ART_NAMES.length];
+
+        ArtUrls(String artPack) {
+            this.artPack = artPack;
+            for (int art = 0; art < ART_NAMES.length; art++) {
+                urls[art] = String.format(Locale.US, artPack, ART_NAMES[art]);
+            }
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return the icon resource of the condition, or -1 if it has none
+     */
+    static int getIconResource(int weatherId) {
+        int art = getArt(weatherId);
+        return art == ART_NONE ? -1 : ICONS[art];
+    }
+
+    /**
+     * @return the art resource of the condition, or -1 if it has none
+     */
+    static int getArtResource(int weatherId) {
+        int art = getArt(weatherId);
+        return art == ART_NONE ? -1 : ARTS[art];
+    }
+
+    /**
+     * @return the art URL of the condition in the art pack in use, or null if it has none
+     */
+    static String getArtUrl(Context context, int weatherId) {
+        int art = getArt(weatherId);
+        if (art == ART_NONE) {
+            return null;
+        }
+        String artPack = SettingsSnapshot.get(context).getArtPack();
+        ArtUrls artUrls = sArtUrls;
+        if (artUrls == null || !artUrls.artPack.equals(artPack)) {
+            artUrls = new ArtUrls(artPack);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[art];
+    }
+
+    /**
+     * @return the URL of the condition's Muzei image, or null if it has none
+     */
+    static String getImageUrl(int weatherId) {
+        int art = getArt(weatherId);
+        if (art == ART_NONE) {
+            return null;
+        }
+        return weatherId == TORNADO ? TORNADO_IMAGE_URL : IMAGE_URLS[art];
+    }
+
+    /**
+     * @return the description's string resource, or 0 if the condition has none
+     */
+    static int getStringId(int weatherId) {
+        if (weatherId < MIN_WEATHER_ID || weatherId > MAX_WEATHER_ID) {
+            return 0;
+        }
+        return sStringIds[weatherId - MIN_WEATHER_ID];
+    }
+
+    private static int getArt(int weatherId) {
+        if (weatherId < MIN_WEATHER_ID || weatherId > MAX_WEATHER_ID) {
+            return ART_NONE;
+        }
+        return sArt[weatherId - MIN_WEATHER_ID];
+    }
+
+    /**
+     * The art of a condition by the ranges of condition codes, which the table is built from.
+     */
+    private static int getArtForRange(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return ART_STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return ART_LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return ART_RAIN;
+        } else if (weatherId == 511) {
+            return ART_SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return ART_RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return ART_SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return ART_FOG;
+        } else if (weatherId == TORNADO) {
+            return ART_STORM;
+        } else if (weatherId == 800) {
+            return ART_CLEAR;
+        } else if (weatherId == 801) {
+            return ART_LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return ART_CLOUDS;
+        }
+        return ART_NONE;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends WeatherProvider's change notifications.  Every restarted loader re-queries, and every
+ * notification of the weather table restarts the forecast list, so a write that changes many
+ * rows should not send one notification per row, or even one per write.
+ *
+ * Between {@link #begin()} and the matching {@link #end()}, notifications are collected on the
+ * calling thread and sent when the outermost batch ends, each URI once.  A URI is also dropped
+ * when one of its ancestors is sent, since observers of descendants hear about that anyway.
+ * Outside of a batch, notifications go out right away.
+ *
+ * Batches end before the provider call that opened them returns, rather than on a timer, so
+ * observers still hear about a write by the time the writer does, and a write that changed
+ * nothing still notifies no one.
+ */
+public class ChangeNotifier {
+
+    // Process-wide, like the query cache's counters, so tests can read them without a handle
+    // on the provider
+    private static final AtomicLong sRequested = new AtomicLong();
+    private static final AtomicLong sSent = new AtomicLong();
+
+    private final ContentResolver mContentResolver;
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    private static class Batch {
+        int depth;
+        final Set<Uri> uris = new LinkedHashSet<Uri>();
+    }
+
+    ChangeNotifier(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    void begin() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+    }
+
+    void notifyChange(Uri uri) {
+        sRequested.incrementAndGet();
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            send(uri);
+        } else {
+            batch.uris.add(uri);
+        }
+    }
+
+    /**
+     * Ends a batch, sending what it collected if it was the outermost one.  Call it from a
+     * finally block: the notifications of whatever was committed before a failure still count.
+     */
+    void end() {
+        Batch batch = mBatch.get();
+        if (--batch.depth > 0) {
+            return;
+        }
+        mBatch.remove();
+        for (Uri uri : withoutDescendants(batch.uris)) {
+            send(uri);
+        }
+    }
+
+    private void send(Uri uri) {
+        sSent.incrementAndGet();
+        mContentResolver.notifyChange(uri, null);
+    }
+
+    static List<Uri> withoutDescendants(Set<Uri> uris) {
+        List<Uri> result = new ArrayList<Uri>(uris.size());
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (other != uri && isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestor.getAuthority().equals(uri.getAuthority())
+                && ancestorSegments.size() < segments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+
+    /**
+     * @return how many notifications the provider asked for, in this process so far
+     */
+    public static long getRequestedCount() {
+        return sRequested.get();
+    }
+
+    /**
+     * @return how many of them were actually sent
+     */
+    public static long getSentCount() {
+        return sSent.get();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of recent forecast queries in memory.  The forecast list, the detail pane,
+ * both widgets, Muzei and the sync notification all ask WeatherProvider for the same few rows
+ * of the same location; after the first of them, the rest are answered from here with a
+ * MatrixCursor, without touching the database.
+ *
+ * Results are keyed by location setting, date range, projection and sort order.  Each one
+ * remembers which location row it was read from, so a write only drops the results that
+ * cover the location and date it changed.  WeatherProvider does the invalidating, so writes
+ * that go around it (straight to the database) are not seen here.
+ *
+ * Only small results are kept, and only on Honeycomb and up, where a cursor can tell the type
+ * of each value and the copy is exact.
+ */
+public class ForecastQueryCache {
+
+    // A 14 day forecast fits many times over; whole-table reads don't
+    static final int MAX_ROWS_PER_ENTRY = 64;
+    static final int MAX_ENTRIES = 32;
+
+    // The location of a result for a location setting that has no location row (yet)
+    static final long NO_LOCATION = -1;
+
+    private static final ForecastQueryCache sInstance = new ForecastQueryCache();
+
+    private final Map<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    // Bumped by every invalidation, so a query that raced with a write does not cache what
+    // it read before the write
+    private long mGeneration;
+    // Transactions that span several writes, and only commit once all of them are done
+    private int mOpenBatches;
+
+    public static ForecastQueryCache getInstance() {
+        return sInstance;
+    }
+
+    private static class Entry {
+        final String locationSetting;
+        final long locationId;
+        final long startDate;
+        final long endDate;
+        final String[] columns;
+        final Object[][] rows;
+
+        Entry(String locationSetting, long locationId, long startDate, long endDate,
+              String[] columns, Object[][] rows) {
+            this.locationSetting = locationSetting;
+            this.locationId = locationId;
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        boolean covers(long locationId, long date) {
+            // A result read before its location existed may be about to change too
+            return (this.locationId == locationId || this.locationId == NO_LOCATION)
+                    && startDate <= date && date <= endDate;
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+
+    static String buildKey(int route, String locationSetting, long date, String[] projection,
+                           String sortOrder) {
+        return route + "|" + locationSetting + "|" + date + "|" + Arrays.toString(projection)
+                + "|" + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached result, or null on a miss.
+     */
+    Cursor get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+        }
+        if (entry == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return entry.newCursor();
+    }
+
+    /**
+     * The generation to pass to {@link #put} for a query that is about to run.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the result of a query, if it is small enough, and returns a cursor to hand back
+     * instead of the one passed in.  The source cursor is closed if it was copied.
+     *
+     * @param generation what {@link #getGeneration()} returned before the query ran
+     * @param startDate the first date the query covers, inclusive
+     * @param endDate the last date the query covers, inclusive
+     */
+    @TargetApi(11)
+    Cursor put(String key, long generation, String locationSetting, long locationId,
+               long startDate, long endDate, Cursor source) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || source.getCount() > MAX_ROWS_PER_ENTRY) {
+            return source;
+        }
+
+        String[] columns = source.getColumnNames();
+        Object[][] rows = new Object[source.getCount()][];
+        source.moveToPosition(-1);
+        for (int i = 0; source.moveToNext(); i++) {
+            Object[] row = new Object[columns.length];
+            for (int column = 0; column < columns.length; column++) {
+                switch (source.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = source.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = source.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[column] = source.getString(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[column] = source.getBlob(column);
+                        break;
+                    default:
+                        row[column] = null;
+                        break;
+                }
+            }
+            rows[i] = row;
+        }
+        source.close();
+
+        Entry entry = new Entry(locationSetting, locationId, startDate, endDate, columns, rows);
+        synchronized (this) {
+            if (generation == mGeneration && mOpenBatches == 0) {
+                mEntries.put(key, entry);
+            }
+        }
+        return entry.newCursor();
+    }
+
+    /**
+     * Drops the results that include the given day of the given location.
+     */
+    synchronized void invalidate(long locationId, long date) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().covers(locationId, date)) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the results for a location setting, e.g. when its location row is added.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().locationSetting.equals(locationSetting)) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Called before a transaction that spans several writes.  Their invalidations happen
+     * before the transaction commits, so until {@link #endBatch()} nothing is cached: it
+     * could have been read before the commit.
+     */
+    synchronized void beginBatch() {
+        mOpenBatches++;
+        mGeneration++;
+    }
+
+    /**
+     * Called once the transaction has committed or rolled back.
+     */
+    synchronized void endBatch() {
+        mOpenBatches--;
+        // Queries that started during the batch may have read what it replaced
+        mGeneration++;
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+}
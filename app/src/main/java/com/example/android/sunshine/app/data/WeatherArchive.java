@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves past days from the weather table into the archive, and keeps the archive small by
+ * rolling days older than ArchiveEntry.ARCHIVE_DAILY_DAYS into one row per week.
+ */
+class WeatherArchive {
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // What the archive takes from the weather table, in this order
+    private static final String[] ARCHIVED_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * Copies the weather rows a selection matches into the archive, as one-day rows.  Meant to
+     * run in the transaction that then deletes them.
+     */
+    static void archive(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        StringBuilder columns = new StringBuilder();
+        for (String column : ARCHIVED_COLUMNS) {
+            columns.append(column).append(", ");
+        }
+        // The archive's columns have the same names; the extra one is the day count
+        db.execSQL("INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" + columns +
+                        ArchiveEntry.COLUMN_DAYS + ") SELECT " + columns + "1 FROM " +
+                        WeatherEntry.TABLE_NAME + " WHERE " + selection,
+                selectionArgs == null ? new Object[0] : selectionArgs);
+    }
+
+    /**
+     * Rolls the one-day rows that are more than ARCHIVE_DAILY_DAYS old into weekly rows, and
+     * drops the weeks that are more than ARCHIVE_WEEKLY_WEEKS older than that.  Only the days
+     * that crossed the line since the last run are read, so a run after every sync has at most
+     * a day per location to do.
+     *
+     * @param now the current time; days are counted back from the day it falls on
+     * @return how many archive rows were rolled up or dropped
+     */
+    static int compact(SQLiteDatabase db, long now) {
+        Time time = new Time();
+        time.set(now);
+        int today = Time.getJulianDay(now, time.gmtoff);
+        // Whole weeks only, so a week is always rolled up at once
+        long dailyCutoff = time.setJulianDay(weekStart(today - ArchiveEntry.ARCHIVE_DAILY_DAYS));
+        long weeklyCutoff = time.setJulianDay(
+                weekStart(today - ArchiveEntry.ARCHIVE_DAILY_DAYS) -
+                        7 * ArchiveEntry.ARCHIVE_WEEKLY_WEEKS);
+
+        int compacted = 0;
+        WeatherProvider.beginWriteTransaction(db);
+        try {
+            Map<String, Week> weeks = new LinkedHashMap<String, Week>();
+            Cursor cursor = db.query(ArchiveEntry.TABLE_NAME, null,
+                    ArchiveEntry.COLUMN_DAYS + " = 1 AND " + ArchiveEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(dailyCutoff)}, null, null,
+                    ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_DATE);
+            try {
+                while (cursor.moveToNext()) {
+                    long locationId = cursor.getLong(
+                            cursor.getColumnIndex(ArchiveEntry.COLUMN_LOC_KEY));
+                    long date = cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_DATE));
+                    long weekDate = getWeekStartDate(time, date);
+                    String key = locationId + "/" + weekDate;
+                    Week week = weeks.get(key);
+                    if (week == null) {
+                        week = new Week(locationId, weekDate);
+                        weeks.put(key, week);
+                    }
+                    week.add(cursor);
+                    compacted++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (Week week : weeks.values()) {
+                // A week that was rolled up before, if some of its days came in late
+                cursor = db.query(ArchiveEntry.TABLE_NAME, null,
+                        ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_DATE +
+                                " = ? AND " + ArchiveEntry.COLUMN_DAYS + " > 1",
+                        new String[]{Long.toString(week.locationId), Long.toString(week.date)},
+                        null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        week.add(cursor);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.delete(ArchiveEntry.TABLE_NAME,
+                        ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_DATE +
+                                " >= ? AND " + ArchiveEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(week.locationId), Long.toString(week.date),
+                                Long.toString(week.date + 7 * DAY_IN_MILLIS)});
+                db.insert(ArchiveEntry.TABLE_NAME, null, week.toContentValues());
+            }
+
+            compacted += db.delete(ArchiveEntry.TABLE_NAME,
+                    ArchiveEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(weeklyCutoff)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return compacted;
+    }
+
+    // Julian day 0 was a Monday, so weeks run Monday to Sunday
+    private static int weekStart(int julianDay) {
+        return julianDay - julianDay % 7;
+    }
+
+    /**
+     * @return the start of the Monday of the week a date falls in
+     */
+    static long getWeekStartDate(Time time, long date) {
+        time.set(date);
+        return time.setJulianDay(weekStart(Time.getJulianDay(date, time.gmtoff)));
+    }
+
+    /**
+     * The days of one location and week, being rolled into one row.
+     */
+    private static class Week {
+        final long locationId;
+        final long date;
+        int days;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double humidity;
+        double pressure;
+        double wind;
+        // Wind directions are averaged as vectors: the mean of 350 and 10 degrees is 0, not 180
+        double windX;
+        double windY;
+        // Weather ID -> days, and a description for each
+        final Map<Integer, Integer> conditionDays = new HashMap<Integer, Integer>();
+        final Map<Integer, String> descriptions = new HashMap<Integer, String>();
+        final List<Integer> conditionOrder = new ArrayList<Integer>();
+
+        Week(long locationId, long date) {
+            this.locationId = locationId;
+            this.date = date;
+        }
+
+        void add(Cursor cursor) {
+            int rowDays = cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_DAYS));
+            days += rowDays;
+            min = Math.min(min, getDouble(cursor, ArchiveEntry.COLUMN_MIN_TEMP));
+            max = Math.max(max, getDouble(cursor, ArchiveEntry.COLUMN_MAX_TEMP));
+            humidity += rowDays * getDouble(cursor, ArchiveEntry.COLUMN_HUMIDITY);
+            pressure += rowDays * getDouble(cursor, ArchiveEntry.COLUMN_PRESSURE);
+            wind += rowDays * getDouble(cursor, ArchiveEntry.COLUMN_WIND_SPEED);
+            double degrees = Math.toRadians(getDouble(cursor, ArchiveEntry.COLUMN_DEGREES));
+            windX += rowDays * Math.cos(degrees);
+            windY += rowDays * Math.sin(degrees);
+
+            int weatherId = cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID));
+            Integer conditionDays = this.conditionDays.get(weatherId);
+            if (conditionDays == null) {
+                conditionDays = 0;
+                conditionOrder.add(weatherId);
+                descriptions.put(weatherId,
+                        cursor.getString(cursor.getColumnIndex(ArchiveEntry.COLUMN_SHORT_DESC)));
+            }
+            this.conditionDays.put(weatherId, conditionDays + rowDays);
+        }
+
+        private static double getDouble(Cursor cursor, String column) {
+            return cursor.getDouble(cursor.getColumnIndex(column));
+        }
+
+        ContentValues toContentValues() {
+            // The most common condition; the earliest one of those that are equally common
+            int dominant = conditionOrder.get(0);
+            for (int weatherId : conditionOrder) {
+                if (conditionDays.get(weatherId) > conditionDays.get(dominant)) {
+                    dominant = weatherId;
+                }
+            }
+            double degrees = Math.toDegrees(Math.atan2(windY, windX));
+
+            ContentValues values = new ContentValues();
+            values.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+            values.put(ArchiveEntry.COLUMN_DATE, date);
+            values.put(ArchiveEntry.COLUMN_DAYS, days);
+            values.put(ArchiveEntry.COLUMN_WEATHER_ID, dominant);
+            values.put(ArchiveEntry.COLUMN_SHORT_DESC, descriptions.get(dominant));
+            values.put(ArchiveEntry.COLUMN_MIN_TEMP, min);
+            values.put(ArchiveEntry.COLUMN_MAX_TEMP, max);
+            values.put(ArchiveEntry.COLUMN_HUMIDITY, humidity / days);
+            values.put(ArchiveEntry.COLUMN_PRESSURE, pressure / days);
+            values.put(ArchiveEntry.COLUMN_WIND_SPEED, wind / days);
+            values.put(ArchiveEntry.COLUMN_DEGREES, degrees < 0 ? degrees + 360 : degrees);
+            return values;
+        }
+    }
+}
@@ -43,6 +43,20 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_SYNC_TRACE = "sync_trace";
+
+    // Debug builds only: ContentProvider.call() method that returns, in EXTRA_QUERY_PLAN, what
+    // EXPLAIN QUERY PLAN says about the query the provider would run for a content URI (passed
+    // as the call's arg) and the usual query() arguments.
+    public static final String METHOD_EXPLAIN_QUERY_PLAN = "explain_query_plan";
+    public static final String EXTRA_PROJECTION = "projection";
+    public static final String EXTRA_SELECTION = "selection";
+    public static final String EXTRA_SELECTION_ARGS = "selection_args";
+    public static final String EXTRA_SORT_ORDER = "sort_order";
+    public static final String EXTRA_QUERY_PLAN = "query_plan";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +95,30 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Query parameter that turns an insert into a get-or-insert: if a location with the same
+        // location setting is already stored, its URI is returned and nothing is written.
+        public static final String QUERY_PARAM_GET_OR_INSERT = "get_or_insert";
+
+        // ContentProvider.call() method doing the same get-or-insert for several locations in
+        // one transaction.  Takes the rows as a ContentValues[] in EXTRA_VALUES and returns
+        // their _IDs, in the same order, as a long[] in EXTRA_IDS.
+        public static final String METHOD_GET_OR_INSERT = "get_or_insert_locations";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_IDS = "ids";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildGetOrInsertUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_GET_OR_INSERT, Boolean.TRUE.toString())
+                    .build();
+        }
+
+        public static boolean isGetOrInsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(QUERY_PARAM_GET_OR_INSERT));
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,10 +161,48 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that turns a bulkInsert into a diff-aware upsert: rows already stored
+        // with the same values are left alone, changed rows are updated in place, and the
+        // provider only notifies observers if something was actually written.  An update of
+        // the same URI upserts the single row in its values, and takes no selection; that is
+        // how an upsert goes into a ContentProviderOperation batch.
+        public static final String QUERY_PARAM_UPSERT = "upsert";
+
+        // Query parameter that makes a delete move the rows into the archive (see ArchiveEntry)
+        // instead of dropping them.
+        public static final String QUERY_PARAM_ARCHIVE = "archive";
+
+        // ContentProvider.call() method doing the same upsert, for callers that want to know how
+        // many rows were inserted, updated and left unchanged.  Takes the rows as a
+        // ContentValues[] in EXTRA_VALUES.
+        public static final String METHOD_UPSERT = "upsert_weather";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+        public static final String EXTRA_UNCHANGED = "unchanged";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_UPSERT, Boolean.TRUE.toString()).build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(QUERY_PARAM_UPSERT));
+        }
+
+        public static Uri buildWeatherArchivingUri() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_ARCHIVE, Boolean.TRUE.toString()).build();
+        }
+
+        public static boolean isArchivingUri(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(QUERY_PARAM_ARCHIVE));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +238,243 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the weather archive: the days the sync
+        has pruned from the weather table.  The last ARCHIVE_DAILY_DAYS days are kept as they
+        were; older ones are downsampled to one row per week, and weeks older than
+        ARCHIVE_WEEKLY_WEEKS are dropped, so the archive stays small however long the app runs.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        public static final int ARCHIVE_DAILY_DAYS = 30;
+        public static final int ARCHIVE_WEEKLY_WEEKS = 52;
+
+        // The same columns as the weather table...
+        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // ...plus how many days the row stands for, starting at its date: 1 for a day, up to 7
+        // for a week.  The min and max of a week are its extremes, the weather ID and
+        // description the most common condition, and the rest averages.
+        public static final String COLUMN_DAYS = "days";
+
+        // Query parameters of a date range, both ends inclusive
+        public static final String QUERY_PARAM_START_DATE = "start";
+        public static final String QUERY_PARAM_END_DATE = "end";
+
+        /**
+         * The history of a location: every archived row that covers a day between the two
+         * dates, oldest first.
+         */
+        public static Uri buildArchiveLocationWithDateRange(String locationSetting,
+                                                            long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(QUERY_PARAM_START_DATE,
+                            Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(QUERY_PARAM_END_DATE,
+                            Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_PARAM_START_DATE);
+            return dateString == null ? Long.MIN_VALUE : Long.parseLong(dateString);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(QUERY_PARAM_END_DATE);
+            return dateString == null ? Long.MAX_VALUE : Long.parseLong(dateString);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the weather summary table: one row per
+        location and week, kept up to date by the provider as the weather rows of that week are
+        written.  Summary screens and widgets read the row instead of adding up the forecast.
+        A summary changes only with the forecast of its location, so its cursors are notified
+        through the forecast's URI, not this one.
+     */
+    public static final class SummaryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SUMMARY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        public static final String TABLE_NAME = "weather_summary";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The start of the week, a Monday, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // How many days of the week the weather table and the archive have
+        public static final String COLUMN_DAYS = "days";
+
+        // The lowest min and the highest max of the week, and the average of the days' means
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_AVG_TEMP = "avg";
+
+        // Days of thunderstorms, drizzle, rain or snow
+        public static final String COLUMN_PRECIPITATION_DAYS = "precipitation_days";
+
+        // The most common condition of the week, as in the weather table
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        /**
+         * Every week of a location, earliest first.
+         */
+        public static Uri buildSummaryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * The week a date falls in.
+         */
+        public static Uri buildSummaryLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly table: the 3-hour steps of the
+        next five days.  There are some forty rows per location, so they are kept small: every
+        value is an INTEGER, scaled where the reading has decimals, and the rows are keyed by
+        location and hour rather than by an _ID of their own.
+     */
+    public static final class HourlyEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Hours since the epoch, UTC, of the start of the step
+        public static final String COLUMN_EPOCH_HOUR = "epoch_hour";
+
+        // Temperature in tenths of a degree
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity in percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure in tenths of a hPa
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Wind speed in tenths of the unit the server sends
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Meteorological degrees (e.g, 0 is north, 180 is south)
+        public static final String COLUMN_DEGREES = "degrees";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Rain and snow over the step, in hundredths of a mm
+        public static final String COLUMN_PRECIPITATION = "precipitation";
+
+        // What the scaled columns were multiplied by
+        public static final int TEMP_SCALE = 10;
+        public static final int PRESSURE_SCALE = 10;
+        public static final int WIND_SPEED_SCALE = 10;
+        public static final int PRECIPITATION_SCALE = 100;
+
+        public static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+        /**
+         * The steps of a location that start on the given day, earliest first.
+         */
+        public static Uri buildHourlyLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        public static long toEpochHour(long millis) {
+            return millis / HOUR_IN_MILLIS;
+        }
+
+        public static int scale(double value, int scale) {
+            return (int) Math.round(value * scale);
+        }
+    }
+
+    /* Debug builds only: the timings of the last syncs, newest first.  Not a table; the rows
+       live in memory and go away with the process. */
+    public static final class SyncTraceEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TRACE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TRACE;
+
+        // When the sync started, in milliseconds since the epoch, and how long it took
+        public static final String COLUMN_STARTED_AT = "started_at";
+        public static final String COLUMN_DURATION_MS = "duration_ms";
+
+        public static final String COLUMN_LOCATIONS = "locations";
+        public static final String COLUMN_ROWS_WRITTEN = "rows_written";
+        // Requests that went to the network, and the bytes they read before and after gzip
+        public static final String COLUMN_REQUESTS = "requests";
+        public static final String COLUMN_WIRE_BYTES = "wire_bytes";
+        public static final String COLUMN_BODY_BYTES = "body_bytes";
+        // Objects and bytes allocated by the whole process while the sync ran, or -1 if they
+        // were not counted
+        public static final String COLUMN_ALLOC_COUNT = "alloc_count";
+        public static final String COLUMN_ALLOC_BYTES = "alloc_bytes";
+
+        // Time spent in each stage, in milliseconds.  The fetch stages run on several threads
+        // at once, so they add up the time of every request and can exceed the duration.
+        public static final String COLUMN_CONNECT_MS = "connect_ms";
+        public static final String COLUMN_FIRST_BYTE_MS = "first_byte_ms";
+        public static final String COLUMN_DOWNLOAD_MS = "download_ms";
+        public static final String COLUMN_PARSE_MS = "parse_ms";
+        // The one transaction that adds the locations, writes the days and deletes past ones
+        public static final String COLUMN_STORE_MS = "store_ms";
+        public static final String COLUMN_STORE_HOURLY_MS = "store_hourly_ms";
+        public static final String COLUMN_UPDATE_WIDGETS_MS = "update_widgets_ms";
+        public static final String COLUMN_UPDATE_MUZEI_MS = "update_muzei_ms";
+        public static final String COLUMN_NOTIFY_WEATHER_MS = "notify_weather_ms";
+    }
 }
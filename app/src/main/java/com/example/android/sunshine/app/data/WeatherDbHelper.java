@@ -15,25 +15,145 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The database runs in write-ahead logging mode where the platform supports it (Honeycomb and
+ * up).  The sync adapter writes while loaders, widgets and Muzei read; with WAL, readers get
+ * connections of their own and see the last committed data instead of queuing up behind the
+ * sync's transaction.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step for the new version to onUpgrade.
+    static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Every query of the weather table comes through a location: the forecast list, the detail
+    // view and the widgets all look up location.location_setting, join on weather.location_id and
+    // filter or sort on weather.date.  The UNIQUE (date, location_id) index has its columns the
+    // wrong way round for that, so these two indexes serve those lookups instead.  They also
+    // carry every column those screens read, so the queries never have to go back to the tables.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_by_location_date";
+    static final String INDEX_LOCATION_SETTING = "location_by_setting";
+
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ");";
+
+    static final String SQL_CREATE_LOCATION_SETTING_INDEX = "CREATE INDEX IF NOT EXISTS " +
+            INDEX_LOCATION_SETTING + " ON " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ");";
+
+    // The UNIQUE (location_id, date) index is also what history queries, which ask for a
+    // location's rows between two dates, run on
+    static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // One row per location and week, replaced whenever a day of that week is written
+    static final String SQL_CREATE_SUMMARY_TABLE = "CREATE TABLE " + SummaryEntry.TABLE_NAME + " (" +
+            SummaryEntry._ID + " INTEGER PRIMARY KEY," +
+            SummaryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            SummaryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            SummaryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            SummaryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            SummaryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            SummaryEntry.COLUMN_AVG_TEMP + " REAL NOT NULL, " +
+            SummaryEntry.COLUMN_PRECIPITATION_DAYS + " INTEGER NOT NULL, " +
+            SummaryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+            SummaryEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            " FOREIGN KEY (" + SummaryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + SummaryEntry.COLUMN_LOC_KEY + ", " +
+            SummaryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // The primary key is what a day's steps are read through: one location, a range of hours
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_EPOCH_HOUR + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_PRECIPITATION + " INTEGER NOT NULL, " +
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " PRIMARY KEY (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_EPOCH_HOUR + ") ON CONFLICT REPLACE);";
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests that need a database of their own
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Also sizes the connection pool for concurrent readers
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    @TargetApi(11)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Before Jelly Bean the helper can't do this itself
+            db.enableWriteAheadLogging();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // With WAL, NORMAL only syncs the log at checkpoints.  A power cut can cost the last
+            // sync, never the consistency of the database, and the next sync refetches it.
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
     }
 
     @Override
@@ -81,18 +201,58 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createIndexes(sqLiteDatabase);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SUMMARY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
     }
 
+    private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SETTING_INDEX);
+    }
+
+    /**
+     * Upgrades the schema one version at a time, so a database of any version reaches the
+     * current one with its locations and forecasts intact.  Dropping the tables instead would
+     * send every device back to the network for a full resync the moment it updates.
+     *
+     * Each schema change gets a step here.  SQLiteOpenHelper runs the whole upgrade in one
+     * transaction, so a failing step leaves the database at its old version.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 2) {
+            // Version 1 databases predate this helper's history and hold nothing the next
+            // sync can't fetch again, so they are the one case that starts over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 3:
+                    // Indexes for the location-first lookups
+                    createIndexes(sqLiteDatabase);
+                    break;
+                case 4:
+                    // The archive of past days
+                    sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+                    break;
+                case 5:
+                    // Weekly summaries, starting with the forecast that is already stored
+                    sqLiteDatabase.execSQL(SQL_CREATE_SUMMARY_TABLE);
+                    WeatherSummary.rebuild(sqLiteDatabase);
+                    break;
+                case 6:
+                    // The 3-hour forecast; the next sync fills it in
+                    sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+                    break;
+                default:
+                    throw new IllegalStateException("No upgrade step to version " + version);
+            }
+        }
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pre-compiled INSERT into the weather table.  SQLiteDatabase.insert() builds the SQL from
+ * the ContentValues keys and binds the values by name for every single row; this statement is
+ * compiled once, binds by index, and is reused for as long as the database stays open.
+ *
+ * Rows get the same conflict handling as insert(): the table's UNIQUE (date, location_id)
+ * constraint replaces the stored day.  Like SQLiteStatement itself, an instance must not be
+ * used by two threads at once.
+ */
+class WeatherInsertStatement {
+    private static final String LOG_TAG = WeatherInsertStatement.class.getSimpleName();
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // Bind index (1-based) of every column
+    private static final Map<String, Integer> sColumnIndexes = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sColumnIndexes.put(COLUMNS[i], i + 1);
+        }
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mStatement;
+
+    WeatherInsertStatement(SQLiteDatabase db) {
+        mDb = db;
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? "," : "").append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        mStatement = db.compileStatement(sql.toString());
+    }
+
+    /**
+     * @return true if this statement was compiled against the given, still open, database.
+     */
+    boolean isFor(SQLiteDatabase db) {
+        return mDb == db && db.isOpen();
+    }
+
+    /**
+     * @return true if every value goes into a column of the statement.  Rows with other
+     * columns (e.g. an explicit _ID) have to go through SQLiteDatabase.insert().
+     */
+    static boolean canInsert(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!sColumnIndexes.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts one row.  Columns missing from the values are bound to NULL.
+     *
+     * @return the row ID of the new row, or -1 if it could not be inserted, just like
+     * SQLiteDatabase.insert()
+     */
+    long insert(ContentValues values) {
+        mStatement.clearBindings();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            int index = sColumnIndexes.get(entry.getKey());
+            Object value = entry.getValue();
+            if (value == null) {
+                mStatement.bindNull(index);
+            } else if (value instanceof Double || value instanceof Float) {
+                mStatement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                mStatement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                mStatement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                mStatement.bindBlob(index, (byte[]) value);
+            } else {
+                mStatement.bindString(index, value.toString());
+            }
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
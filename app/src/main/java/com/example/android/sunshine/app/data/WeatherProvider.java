@@ -17,23 +17,79 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.sync.SyncTrace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Compiled on the first bulk write and reused by every one after it
+    private WeatherInsertStatement mWeatherInsert;
+    private final ForecastQueryCache mQueryCache = ForecastQueryCache.getInstance();
+    // location_setting -> _id of the locations looked up or added through getOrInsertLocations().
+    // Readers never lock it.  IDs are only put in once the rows are committed, and location
+    // updates and deletes clear it once theirs are, so it never hands out an _ID the table does
+    // not have; its lock is only held to change it, never across a transaction.
+    private final Map<String, Long> mLocationIds = new ConcurrentHashMap<String, Long>();
+    // Bumped whenever mLocationIds is cleared, so IDs read before that are not put back in
+    private long mLocationIdsGeneration;
+    // The IDs getOrInsertLocations() found inside the applyBatch() running on this thread, put
+    // into mLocationIds only if the batch commits
+    private final ThreadLocal<Map<String, Long>> mBatchLocationIds =
+            new ThreadLocal<Map<String, Long>>();
+    private ChangeNotifier mNotifier;
+    // Compacts the archive after days were moved into it, one run at a time and at low
+    // priority, so neither the sync nor the UI waits for it.  A run that is already queued
+    // covers whatever was archived before it starts.
+    private final ThreadPoolExecutor mArchiveExecutor = createArchiveExecutor();
+    private final AtomicBoolean mCompactionQueued = new AtomicBoolean();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int ARCHIVE = 400;
+    static final int ARCHIVE_WITH_LOCATION = 401;
+    static final int SUMMARY = 500;
+    static final int SUMMARY_WITH_LOCATION = 501;
+    static final int SUMMARY_WITH_LOCATION_AND_DATE = 502;
+    static final int HOURLY = 600;
+    static final int HOURLY_WITH_LOCATION_AND_DATE = 601;
+    static final int SYNC_TRACE = 700;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -68,7 +124,99 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    private static final SQLiteQueryBuilder sWeatherQueryBuilder = new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sLocationQueryBuilder = new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sArchiveQueryBuilder = new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder =
+            new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sSummaryQueryBuilder = new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sSummaryByLocationSettingQueryBuilder =
+            new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sHourlyQueryBuilder = new SQLiteQueryBuilder();
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder =
+            new SQLiteQueryBuilder();
+
+    static {
+        sWeatherQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+        sLocationQueryBuilder.setTables(WeatherContract.LocationEntry.TABLE_NAME);
+        sArchiveQueryBuilder.setTables(WeatherContract.ArchiveEntry.TABLE_NAME);
+
+        //weather_archive INNER JOIN location ON weather_archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        sSummaryQueryBuilder.setTables(WeatherContract.SummaryEntry.TABLE_NAME);
+
+        //weather_summary INNER JOIN location ON weather_summary.location_id = location._id
+        sSummaryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.SummaryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.SummaryEntry.TABLE_NAME +
+                        "." + WeatherContract.SummaryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        sHourlyQueryBuilder.setTables(WeatherContract.HourlyEntry.TABLE_NAME);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    //location.location_setting = ? AND epoch_hour >= ? AND epoch_hour < ?
+    private static final String sHourlyLocationSettingAndHoursSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " < ? ";
+
+    //location.location_setting = ? AND date = ?, with the date of the week's Monday
+    private static final String sSummaryLocationSettingAndWeekSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.SummaryEntry.COLUMN_DATE + " = ? ";
+
+    //location.location_setting = ? AND date > ? AND date <= ? AND date + days * 86400000 > ?
+    // A row covers the days from its date on, and a week starts at most 6 days before the
+    // range does: bounding the date on both sides keeps it a range search of the
+    // (location_id, date) index, and the last condition drops the weeks that end too early.
+    private static final String sArchiveLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " > ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " <= ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " + " +
+                    WeatherContract.ArchiveEntry.COLUMN_DAYS + " * " +
+                    WeatherArchive.DAY_IN_MILLIS + " > ? ";
+
+    /**
+     * What a content URI reads: the tables, and the selection that goes with the URI.  Both
+     * query() and explainQueryPlan() start from here, so what gets explained is exactly what
+     * gets run.
+     */
+    private static class RouteQuery {
+        final SQLiteQueryBuilder builder;
+        final String selection;
+        final String[] selectionArgs;
+
+        RouteQuery(SQLiteQueryBuilder builder, String selection, String[] selectionArgs) {
+            this.builder = builder;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+    }
+
+    private RouteQuery getWeatherByLocationSetting(Uri uri) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
@@ -83,29 +231,99 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return new RouteQuery(sWeatherByLocationSettingQueryBuilder, selection, selectionArgs);
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
+    private RouteQuery getWeatherByLocationSettingAndDate(Uri uri) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
+        return new RouteQuery(sWeatherByLocationSettingQueryBuilder,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+                new String[]{locationSetting, Long.toString(date)});
+    }
+
+    private RouteQuery getArchiveByLocationSettingAndDateRange(Uri uri) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.ArchiveEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.ArchiveEntry.getEndDateFromUri(uri);
+        long earliestDate = startDate - 7 * WeatherArchive.DAY_IN_MILLIS;
+        if (earliestDate > startDate) {
+            // No start date; don't wrap around
+            earliestDate = Long.MIN_VALUE;
+        }
+
+        return new RouteQuery(sArchiveByLocationSettingQueryBuilder,
+                sArchiveLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(earliestDate),
+                        Long.toString(endDate), Long.toString(startDate)});
+    }
+
+    private RouteQuery getSummaryByLocationSettingAndDate(Uri uri) {
+        String locationSetting = WeatherContract.SummaryEntry.getLocationSettingFromUri(uri);
+        long weekDate = WeatherArchive.getWeekStartDate(new Time(),
+                WeatherContract.SummaryEntry.getDateFromUri(uri));
+
+        return new RouteQuery(sSummaryByLocationSettingQueryBuilder,
+                sSummaryLocationSettingAndWeekSelection,
+                new String[]{locationSetting, Long.toString(weekDate)});
+    }
+
+    private RouteQuery getHourlyByLocationSettingAndDate(Uri uri) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.HourlyEntry.getDateFromUri(uri);
+        // The whole hours from the day's midnight to the next one; a midnight that is not on
+        // the hour, in zones with a half hour offset, rounds up
+        long firstHour = WeatherContract.HourlyEntry.toEpochHour(
+                date + WeatherContract.HourlyEntry.HOUR_IN_MILLIS - 1);
+        long endHour = WeatherContract.HourlyEntry.toEpochHour(
+                date + WeatherArchive.DAY_IN_MILLIS + WeatherContract.HourlyEntry.HOUR_IN_MILLIS - 1);
+
+        return new RouteQuery(sHourlyByLocationSettingQueryBuilder,
+                sHourlyLocationSettingAndHoursSelection,
+                new String[]{locationSetting, Long.toString(firstHour), Long.toString(endHour)});
+    }
+
+    private RouteQuery resolveQuery(Uri uri, String selection, String[] selectionArgs) {
+        switch (sUriMatcher.match(uri)) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return getWeatherByLocationSettingAndDate(uri);
+            // "weather/*"
+            case WEATHER_WITH_LOCATION:
+                return getWeatherByLocationSetting(uri);
+            // "weather"
+            case WEATHER:
+                return new RouteQuery(sWeatherQueryBuilder, selection, selectionArgs);
+            // "location"
+            case LOCATION:
+                return new RouteQuery(sLocationQueryBuilder, selection, selectionArgs);
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION:
+                return getArchiveByLocationSettingAndDateRange(uri);
+            // "archive"
+            case ARCHIVE:
+                return new RouteQuery(sArchiveQueryBuilder, selection, selectionArgs);
+            // "summary/*/#"
+            case SUMMARY_WITH_LOCATION_AND_DATE:
+                return getSummaryByLocationSettingAndDate(uri);
+            // "summary/*"
+            case SUMMARY_WITH_LOCATION:
+                return new RouteQuery(sSummaryByLocationSettingQueryBuilder,
+                        sLocationSettingSelection,
+                        new String[]{WeatherContract.SummaryEntry.getLocationSettingFromUri(uri)});
+            // "summary"
+            case SUMMARY:
+                return new RouteQuery(sSummaryQueryBuilder, selection, selectionArgs);
+            // "hourly/*/#"
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return getHourlyByLocationSettingAndDate(uri);
+            // "hourly"
+            case HOURLY:
+                return new RouteQuery(sHourlyQueryBuilder, selection, selectionArgs);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
     /*
@@ -130,6 +348,18 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SUMMARY, SUMMARY);
+        matcher.addURI(authority, WeatherContract.PATH_SUMMARY + "/*", SUMMARY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SUMMARY + "/*/#", SUMMARY_WITH_LOCATION_AND_DATE);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/#", HOURLY_WITH_LOCATION_AND_DATE);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TRACE, SYNC_TRACE);
         return matcher;
     }
 
@@ -140,6 +370,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mNotifier = new ChangeNotifier(getContext().getContentResolver());
         return true;
     }
 
@@ -164,6 +395,19 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case SUMMARY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.SummaryEntry.CONTENT_ITEM_TYPE;
+            case SUMMARY:
+            case SUMMARY_WITH_LOCATION:
+                return WeatherContract.SummaryEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case SYNC_TRACE:
+                return WeatherContract.SyncTraceEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,55 +416,133 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        if (match == WEATHER_WITH_LOCATION || match == WEATHER_WITH_LOCATION_AND_DATE) {
+            return queryForecast(uri, match, projection, sortOrder);
+        }
+        if (match == SYNC_TRACE && BuildConfig.DEBUG) {
+            // Every column, whatever the projection; the records are in memory, not a table
+            return SyncTrace.query();
+        }
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
-        Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
+        RouteQuery routeQuery = resolveQuery(uri, selection, selectionArgs);
+        Cursor retCursor = routeQuery.builder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                routeQuery.selection,
+                routeQuery.selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+        retCursor.setNotificationUri(getContext().getContentResolver(),
+                getNotificationUri(uri, match));
+        return retCursor;
+    }
 
+    /**
+     * @return the URI the cursor of a query watches.  A weekly summary only changes in the
+     * transaction that writes the forecast of its week, so summaries are watched through the
+     * forecast of their location, and writes notify each location once for both.
+     */
+    private static Uri getNotificationUri(Uri uri, int match) {
+        switch (match) {
+            case SUMMARY_WITH_LOCATION:
+            case SUMMARY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.SummaryEntry.getLocationSettingFromUri(uri));
+            case SUMMARY:
+                return WeatherContract.WeatherEntry.CONTENT_URI;
             default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+                return uri;
+        }
+    }
+
+    /**
+     * Reads a location's forecast through the query cache.  These routes ignore the caller's
+     * selection, so the URI, projection and sort order are all there is to key a result on.
+     */
+    private Cursor queryForecast(Uri uri, int match, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long startDate;
+        long endDate;
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            startDate = WeatherContract.WeatherEntry.getDateFromUri(uri);
+            endDate = startDate;
+        } else {
+            startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+            endDate = Long.MAX_VALUE;
+            if (startDate == 0) {
+                // No start date, no date condition
+                startDate = Long.MIN_VALUE;
+            }
+        }
+        String key = ForecastQueryCache.buildKey(match, locationSetting, startDate, projection,
+                sortOrder);
+
+        Cursor retCursor = mQueryCache.get(key);
+        if (retCursor == null) {
+            long generation = mQueryCache.getGeneration();
+            SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+            RouteQuery routeQuery = resolveQuery(uri, null, null);
+            retCursor = routeQuery.builder.query(db,
+                    projection,
+                    routeQuery.selection,
+                    routeQuery.selectionArgs,
+                    null,
+                    null,
+                    sortOrder
+            );
+            retCursor = mQueryCache.put(key, generation, locationSetting,
+                    findLocationId(db, locationSetting), startDate, endDate, retCursor);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
+    /**
+     * @return the _ID of the location with the given setting, or ForecastQueryCache.NO_LOCATION
+     */
+    private long findLocationId(SQLiteDatabase db, String locationSetting) {
+        Long locationId = mLocationIds.get(locationSetting);
+        if (locationId != null) {
+            return locationId;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : ForecastQueryCache.NO_LOCATION;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN on the query that query() would run for the same arguments.
+     *
+     * @return one line per step of the plan, e.g. "SEARCH TABLE weather USING INDEX ..."
+     */
+    List<String> explainQueryPlan(Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs, String sortOrder) {
+        RouteQuery routeQuery = resolveQuery(uri, selection, selectionArgs);
+        String sql = SQLiteQueryBuilder.buildQueryString(false, routeQuery.builder.getTables(),
+                projection, routeQuery.selection, null, null, sortOrder, null);
+        Cursor cursor = mOpenHelper.getReadableDatabase().rawQuery(
+                "EXPLAIN QUERY PLAN " + sql, routeQuery.selectionArgs);
+        List<String> plan = new ArrayList<String>();
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -233,25 +555,53 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                List<long[]> keys = getWeatherKeys(Collections.singletonList(values));
+                beginWriteTransaction(db);
+                try {
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    WeatherSummary.update(db, keys);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                weatherChanged(keys);
                 break;
             }
             case LOCATION: {
+                if (WeatherContract.LocationEntry.isGetOrInsertUri(uri)) {
+                    long locationId = getOrInsertLocations(new ContentValues[]{values})[0];
+                    return WeatherContract.LocationEntry.buildLocationUri(locationId);
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Results read while the location did not exist yet are empty
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (locationSetting != null) {
+                    mQueryCache.invalidate(locationSetting);
+                } else {
+                    mQueryCache.invalidateAll();
+                }
+                mNotifier.notifyChange(uri);
+                break;
+            }
+            case HOURLY: {
+                if (insertHourly(db, new ContentValues[]{values}) == 0)
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // The rows have no _ID; the URI of the table is all there is
+                returnUri = WeatherContract.HourlyEntry.CONTENT_URI;
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -260,27 +610,202 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        // Everything goes, so there is no point in finding out what exactly
+        final boolean allRows = null == selection;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case WEATHER: {
+                final boolean archiving = WeatherContract.WeatherEntry.isArchivingUri(uri);
+                List<long[]> keys = null;
+                beginWriteTransaction(db);
+                try {
+                    if (!allRows) {
+                        keys = readWeatherKeys(db, selection, selectionArgs);
+                    }
+                    if (archiving) {
+                        WeatherArchive.archive(db, selection, selectionArgs);
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    // Archived days still count towards their weeks
+                    if (rowsDeleted != 0 && !archiving) {
+                        WeatherSummary.update(db, keys);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // Because a null deletes all rows
+                if (rowsDeleted != 0) {
+                    weatherChanged(keys);
+                    if (archiving) {
+                        mNotifier.notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+                        scheduleArchiveCompaction();
+                    }
+                }
                 break;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                clearLocationIds();
+                mQueryCache.invalidateAll();
+                if (rowsDeleted != 0) {
+                    mNotifier.notifyChange(uri);
+                }
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    mNotifier.notifyChange(uri);
+                }
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    mNotifier.notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsDeleted;
     }
 
+    private static ThreadPoolExecutor createArchiveExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ArchiveCompaction");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        // No thread is kept around between syncs
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void scheduleArchiveCompaction() {
+        if (!mCompactionQueued.compareAndSet(false, true)) {
+            return;
+        }
+        mArchiveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Anything archived from here on needs a run of its own
+                mCompactionQueued.set(false);
+                int compacted = WeatherArchive.compact(mOpenHelper.getWritableDatabase(),
+                        System.currentTimeMillis());
+                if (compacted > 0) {
+                    Log.v(LOG_TAG, "Archive compaction: " + compacted + " rows rolled up or dropped");
+                    mNotifier.notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+                }
+            }
+        });
+    }
+
+    /**
+     * The location and date of every weather row a selection matches, for invalidating the
+     * cached forecasts they appear in and notifying their observers.  Called in the transaction
+     * that changes the rows.
+     */
+    private static List<long[]> readWeatherKeys(SQLiteDatabase db, String selection,
+                                                String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        List<long[]> keys = new ArrayList<long[]>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(new long[]{cursor.getLong(0), cursor.getLong(1)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    /**
+     * The location and date of each of the given weather rows.
+     *
+     * @return null if any of them has no location or date
+     */
+    private static List<long[]> getWeatherKeys(Collection<ContentValues> values) {
+        List<long[]> keys = new ArrayList<long[]>(values.size());
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                return null;
+            }
+            keys.add(new long[]{locationId, date});
+        }
+        return keys;
+    }
+
+    /**
+     * Drops the cached forecasts that include the given weather rows and notifies the observers
+     * of their locations, each location once.  The weekly summaries are watched through the
+     * same URIs (see getNotificationUri()), so they need no notification of their own.  Call it
+     * once the write has committed, so no query can read the old rows and cache them again
+     * afterwards.
+     *
+     * @param keys the location and date of every changed row, or null if they are not known,
+     *             which drops and notifies everything
+     */
+    private void weatherChanged(List<long[]> keys) {
+        Map<Long, Uri> locationUris = new HashMap<Long, Uri>();
+        mNotifier.begin();
+        try {
+            if (keys == null) {
+                mQueryCache.invalidateAll();
+                mNotifier.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                return;
+            }
+            for (long[] key : keys) {
+                mQueryCache.invalidate(key[0], key[1]);
+                Uri locationUri = locationUris.get(key[0]);
+                if (locationUri == null) {
+                    locationUri = buildWeatherLocationUri(key[0]);
+                    locationUris.put(key[0], locationUri);
+                }
+                mNotifier.notifyChange(locationUri);
+            }
+        } finally {
+            mNotifier.end();
+        }
+    }
+
+    /**
+     * @return the weather/* URI of a location, which is what the forecast of that location is
+     * read (and observed) through, or the whole weather URI if the location is gone
+     */
+    private Uri buildWeatherLocationUri(long locationId) {
+        for (Map.Entry<String, Long> location : mLocationIds.entrySet()) {
+            if (location.getValue() == locationId) {
+                return WeatherContract.WeatherEntry.buildWeatherLocation(location.getKey());
+            }
+        }
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? WeatherContract.WeatherEntry.buildWeatherLocation(cursor.getString(0))
+                    : WeatherContract.WeatherEntry.CONTENT_URI;
+        } finally {
+            cursor.close();
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -297,21 +822,47 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    // The row to write is all in the values, so there is no selection
+                    UpsertResult result = upsertWeather(new ContentValues[]{values});
+                    return result.inserted + result.updated;
+                }
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                List<long[]> keys = null;
+                beginWriteTransaction(db);
+                try {
+                    // Rows moved to another location or date are easier to forget everywhere
+                    if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                            && !values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        keys = readWeatherKeys(db, selection, selectionArgs);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        WeatherSummary.update(db, keys);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    weatherChanged(keys);
+                }
                 break;
+            }
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                        selection, selectionArgs);
+                clearLocationIds();
+                mQueryCache.invalidateAll();
+                if (rowsUpdated != 0) {
+                    mNotifier.notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsUpdated;
     }
 
@@ -321,33 +872,483 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    UpsertResult result = upsertWeather(values);
+                    return result.inserted + result.updated;
+                }
+                beginWriteTransaction(db);
+                List<ContentValues> insertedRows = new ArrayList<ContentValues>(values.length);
+                List<long[]> keys = null;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = insertWeather(db, value);
                         if (_id != -1) {
-                            returnCount++;
+                            insertedRows.add(value);
                         }
                     }
+                    if (insertedRows.size() > 0) {
+                        keys = getWeatherKeys(insertedRows);
+                        WeatherSummary.update(db, keys);
+                    }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                if (insertedRows.size() > 0) {
+                    weatherChanged(keys);
+                }
+                return insertedRows.size();
+            case HOURLY:
+                return insertHourly(db, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in a single transaction, so they all take effect or none of them
+     * do, and the database only syncs to disk once.  Operations marked with
+     * ContentProviderOperation.Builder.withYieldAllowed() let other writers in before they run,
+     * committing what was applied so far; without them the batch is atomic.
+     *
+     * Observers hear about the batch once it is done, each URI once.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean successful = false;
+        // The locations the batch adds are only known to exist once it commits
+        Map<String, Long> batchLocationIds = new HashMap<String, Long>();
+        long locationIdsGeneration = getLocationIdsGeneration();
+
+        mBatchLocationIds.set(batchLocationIds);
+        mNotifier.begin();
+        mQueryCache.beginBatch();
+        try {
+            beginWriteTransaction(db);
+            try {
+                for (int i = 0; i < results.length; i++) {
+                    ContentProviderOperation operation = operations.get(i);
+                    if (i > 0 && operation.isYieldAllowed()) {
+                        // A yield commits, so the locations added so far exist from here on
+                        if (db.yieldIfContendedSafely()) {
+                            putLocationIds(batchLocationIds, locationIdsGeneration);
+                        }
+                    }
+                    results[i] = operation.apply(this, results, i);
+                }
+                db.setTransactionSuccessful();
+                successful = true;
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mBatchLocationIds.remove();
+            if (successful) {
+                putLocationIds(batchLocationIds, locationIdsGeneration);
+            } else {
+                // Whatever the operations cached may have been rolled back
+                mQueryCache.invalidateAll();
+            }
+            mQueryCache.endBatch();
+            mNotifier.end();
+        }
+        return results;
+    }
+
+    /**
+     * Starts a transaction that does not lock out readers.  In WAL mode they keep reading the
+     * last committed data on their own connections until this one commits.
+     */
+    @TargetApi(11)
+    static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /**
+     * Inserts a weather row through the compiled statement when it can.  Only called inside a
+     * transaction, which is also what keeps two threads from binding the statement at once.
+     */
+    private synchronized long insertWeather(SQLiteDatabase db, ContentValues value) {
+        if (!WeatherInsertStatement.canInsert(value)) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+        }
+        if (mWeatherInsert == null || !mWeatherInsert.isFor(db)) {
+            // First use, or the helper was closed and handed out a new database since
+            if (mWeatherInsert != null) {
+                mWeatherInsert.close();
+            }
+            mWeatherInsert = new WeatherInsertStatement(db);
+        }
+        return mWeatherInsert.insert(value);
+    }
+
+    // The columns of the hourly table, in the order insertHourly() binds them
+    private static final String[] HOURLY_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+            WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_PRECIPITATION
+    };
+
+    /**
+     * Writes hourly rows in one transaction through a statement compiled once for all of them.
+     * Every column is an INTEGER and NOT NULL, so the rows bind straight to longs.  A step that
+     * is already stored is replaced.
+     *
+     * @return how many rows were written
+     */
+    private int insertHourly(SQLiteDatabase db, ContentValues[] values) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherContract.HourlyEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < HOURLY_COLUMNS.length; i++) {
+            sql.append(i > 0 ? "," : "").append(HOURLY_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < HOURLY_COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+
+        int inserted = 0;
+        beginWriteTransaction(db);
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (ContentValues value : values) {
+                boolean complete = true;
+                for (int i = 0; i < HOURLY_COLUMNS.length; i++) {
+                    Long column = value.getAsLong(HOURLY_COLUMNS[i]);
+                    if (column == null) {
+                        complete = false;
+                        break;
+                    }
+                    statement.bindLong(i + 1, column);
+                }
+                if (complete) {
+                    statement.executeInsert();
+                    inserted++;
+                } else {
+                    Log.w(LOG_TAG, "Skipping incomplete hourly row " + value);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+        if (inserted > 0) {
+            mNotifier.notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        return inserted;
+    }
+
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_UPSERT.equals(method)) {
+            Parcelable[] parcelables = extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            for (int i = 0; i < parcelables.length; i++) {
+                values[i] = (ContentValues) parcelables[i];
+            }
+            UpsertResult result = upsertWeather(values);
+            Bundle counts = new Bundle();
+            counts.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, result.inserted);
+            counts.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, result.updated);
+            counts.putInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED, result.unchanged);
+            return counts;
+        }
+        if (WeatherContract.LocationEntry.METHOD_GET_OR_INSERT.equals(method)) {
+            Parcelable[] parcelables = extras.getParcelableArray(WeatherContract.LocationEntry.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            for (int i = 0; i < parcelables.length; i++) {
+                values[i] = (ContentValues) parcelables[i];
+            }
+            Bundle result = new Bundle();
+            result.putLongArray(WeatherContract.LocationEntry.EXTRA_IDS,
+                    getOrInsertLocations(values));
+            return result;
+        }
+        if (BuildConfig.DEBUG && WeatherContract.METHOD_EXPLAIN_QUERY_PLAN.equals(method)) {
+            List<String> plan = explainQueryPlan(Uri.parse(arg),
+                    extras.getStringArray(WeatherContract.EXTRA_PROJECTION),
+                    extras.getString(WeatherContract.EXTRA_SELECTION),
+                    extras.getStringArray(WeatherContract.EXTRA_SELECTION_ARGS),
+                    extras.getString(WeatherContract.EXTRA_SORT_ORDER));
+            Bundle result = new Bundle();
+            result.putStringArray(WeatherContract.EXTRA_QUERY_PLAN,
+                    plan.toArray(new String[plan.size()]));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the _ID of each location, inserting the ones whose location setting is not stored
+     * yet.  All of it happens in one write transaction, which the database only lets one
+     * thread hold at a time, so two syncs adding the same location can't both insert it.  A
+     * location that was looked up before costs no query at all.  Locations that are already
+     * stored are left as they are.
+     *
+     * @return the _IDs, in the order of the values
+     */
+    private long[] getOrInsertLocations(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long[] locationIds = new long[values.length];
+        Map<String, Long> newLocationIds = new HashMap<String, Long>();
+        boolean inserted = false;
+        long locationIdsGeneration = getLocationIdsGeneration();
+
+        beginWriteTransaction(db);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                String locationSetting = values[i].getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (locationSetting == null) {
+                    throw new IllegalArgumentException("Location without a " +
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                }
+                long locationId = findLocationId(db, locationSetting);
+                if (locationId == ForecastQueryCache.NO_LOCATION) {
+                    locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                            values[i]);
+                    if (locationId <= 0) {
+                        throw new android.database.SQLException(
+                                "Failed to insert location " + locationSetting);
+                    }
+                    inserted = true;
+                }
+                locationIds[i] = locationId;
+                newLocationIds.put(locationSetting, locationId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Only once the rows are committed, which inside a batch is when the batch is
+        Map<String, Long> batchLocationIds = mBatchLocationIds.get();
+        if (batchLocationIds != null) {
+            batchLocationIds.putAll(newLocationIds);
+        } else {
+            putLocationIds(newLocationIds, locationIdsGeneration);
+        }
+
+        if (inserted) {
+            for (String locationSetting : newLocationIds.keySet()) {
+                mQueryCache.invalidate(locationSetting);
+            }
+            mNotifier.notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return locationIds;
+    }
+
+    private long getLocationIdsGeneration() {
+        synchronized (mLocationIds) {
+            return mLocationIdsGeneration;
+        }
+    }
+
+    /**
+     * Remembers committed location IDs, unless the map was cleared since they were read.
+     *
+     * @param generation getLocationIdsGeneration() from before the IDs were read
+     */
+    private void putLocationIds(Map<String, Long> locationIds, long generation) {
+        synchronized (mLocationIds) {
+            if (generation == mLocationIdsGeneration) {
+                mLocationIds.putAll(locationIds);
+            }
+        }
+    }
+
+    /**
+     * Forgets every location ID.  Call it once a write that changed or removed locations has
+     * committed.
+     */
+    private void clearLocationIds() {
+        synchronized (mLocationIds) {
+            mLocationIds.clear();
+            mLocationIdsGeneration++;
+        }
+    }
+
+    /**
+     * What a diff-aware write did with the rows it was given.
+     */
+    static class UpsertResult {
+        int inserted;
+        int updated;
+        int unchanged;
+    }
+
+    /**
+     * Writes weather rows, comparing each with the row already stored for the same location and
+     * date.  A plain insert would let the ON CONFLICT REPLACE constraint delete and re-insert
+     * every day of every sync, giving each row a new _ID and waking up every observer even
+     * though the forecast did not change.  Here unchanged rows are skipped, changed ones are
+     * updated in place, and observers are only notified if anything was written.
+     */
+    private UpsertResult upsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        UpsertResult result = new UpsertResult();
+        List<ContentValues> writtenRows = new ArrayList<ContentValues>();
+        List<long[]> writtenKeys = null;
+
+        // Group the rows by location, so each location's stored days are read with one query
+        Map<Long, Map<Long, ContentValues>> rowsByLocation =
+                new LinkedHashMap<Long, Map<Long, ContentValues>>();
+        List<ContentValues> unkeyedRows = new ArrayList<ContentValues>();
+        for (ContentValues value : values) {
+            normalizeDate(value);
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                // Nothing to compare it with; let the constraints have their say
+                unkeyedRows.add(value);
+                continue;
+            }
+            Map<Long, ContentValues> rowsByDate = rowsByLocation.get(locationId);
+            if (rowsByDate == null) {
+                rowsByDate = new HashMap<Long, ContentValues>();
+                rowsByLocation.put(locationId, rowsByDate);
+            }
+            rowsByDate.put(date, value);
+        }
+
+        beginWriteTransaction(db);
+        try {
+            for (Map.Entry<Long, Map<Long, ContentValues>> location : rowsByLocation.entrySet()) {
+                Map<Long, ContentValues> rowsByDate = location.getValue();
+                Map<Long, ContentValues> changedRows = new HashMap<Long, ContentValues>();
+
+                long minDate = Long.MAX_VALUE;
+                long maxDate = Long.MIN_VALUE;
+                for (long date : rowsByDate.keySet()) {
+                    minDate = Math.min(minDate, date);
+                    maxDate = Math.max(maxDate, date);
+                }
+                Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?",
+                        new String[]{Long.toString(location.getKey()),
+                                Long.toString(minDate), Long.toString(maxDate)},
+                        null, null, null);
+                try {
+                    int idIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry._ID);
+                    int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    while (cursor.moveToNext()) {
+                        ContentValues value = rowsByDate.remove(cursor.getLong(dateIndex));
+                        if (value == null) {
+                            continue;
+                        }
+                        if (matchesCurrentRow(cursor, value)) {
+                            result.unchanged++;
+                        } else {
+                            changedRows.put(cursor.getLong(idIndex), value);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                writtenRows.addAll(changedRows.values());
+                for (Map.Entry<Long, ContentValues> changedRow : changedRows.entrySet()) {
+                    result.updated += db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                            changedRow.getValue(), WeatherContract.WeatherEntry._ID + " = ?",
+                            new String[]{Long.toString(changedRow.getKey())});
+                }
+                // What is left are days that were not stored yet
+                unkeyedRows.addAll(rowsByDate.values());
+            }
+            for (ContentValues value : unkeyedRows) {
+                if (insertWeather(db, value) != -1) {
+                    result.inserted++;
+                }
+            }
+            writtenRows.addAll(unkeyedRows);
+            if (result.inserted + result.updated > 0) {
+                writtenKeys = getWeatherKeys(writtenRows);
+                WeatherSummary.update(db, writtenKeys);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.v(LOG_TAG, "Weather upsert: " + result.inserted + " inserted, " + result.updated
+                + " updated, " + result.unchanged + " unchanged");
+        // Unchanged rows leave the cached forecasts and the observers alone
+        if (result.inserted + result.updated > 0) {
+            weatherChanged(writtenKeys);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if every value would be stored exactly as it is in the cursor's current row
+     */
+    private static boolean matchesCurrentRow(Cursor cursor, ContentValues values) {
+        Set<Map.Entry<String, Object>> entries = values.valueSet();
+        for (Map.Entry<String, Object> entry : entries) {
+            int index = cursor.getColumnIndex(entry.getKey());
+            if (index == -1) {
+                return false;
+            }
+            Object value = entry.getValue();
+            if (value == null || cursor.isNull(index)) {
+                if (value != null || !cursor.isNull(index)) {
+                    return false;
+                }
+            } else if (value instanceof Number) {
+                // Covers INTEGER and REAL columns alike: ints and dates are exact as doubles
+                if (cursor.getDouble(index) != ((Number) value).doubleValue()) {
+                    return false;
+                }
+            } else if (value instanceof Boolean) {
+                if (cursor.getInt(index) != ((Boolean) value ? 1 : 0)) {
+                    return false;
+                }
+            } else if (!value.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mWeatherInsert != null) {
+                mWeatherInsert.close();
+                mWeatherInsert = null;
+            }
+        }
+        // Whatever changes the database next won't go through this provider
+        clearLocationIds();
+        mQueryCache.invalidateAll();
+        // Let a compaction that is running finish before the database goes away
+        mArchiveExecutor.shutdown();
+        try {
+            mArchiveExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         mOpenHelper.close();
         super.shutdown();
     }
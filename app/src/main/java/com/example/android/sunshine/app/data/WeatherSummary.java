@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the weather_summary table in step with the weather table.  Writes only recompute the
+ * weeks their rows fall in, from the at most seven days of each, so the cost of a write does
+ * not grow with the forecast.
+ *
+ * A week is made of its days in the weather table and the days the sync has moved from there
+ * into the archive, so moving days does not change it.  Once the archive rolls a week up into
+ * one row, its days are gone, and the week keeps the summary that was made from them.
+ */
+class WeatherSummary {
+
+    // The days of a week, from the weather table and then the archive, which only adds the
+    // days the weather table does not have
+    private static final String DAYS_COLUMNS = WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP;
+    private static final String WEEK_SELECTION = " WHERE " + WeatherEntry.COLUMN_LOC_KEY +
+            " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE +
+            " < ?";
+    private static final String DAYS_QUERY =
+            "SELECT " + DAYS_COLUMNS + " FROM " + WeatherEntry.TABLE_NAME + WEEK_SELECTION +
+            " UNION ALL SELECT " + DAYS_COLUMNS + " FROM " + ArchiveEntry.TABLE_NAME +
+            WEEK_SELECTION + " AND " + ArchiveEntry.COLUMN_DAYS + " = 1 AND " +
+            ArchiveEntry.COLUMN_DATE + " NOT IN (SELECT " + WeatherEntry.COLUMN_DATE +
+            " FROM " + WeatherEntry.TABLE_NAME + WEEK_SELECTION + ")" +
+            " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String ROLLED_UP_QUERY =
+            "SELECT COUNT(*) FROM " + ArchiveEntry.TABLE_NAME + " WHERE " +
+            ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " + ArchiveEntry.COLUMN_DATE + " = ? AND " +
+            ArchiveEntry.COLUMN_DAYS + " > 1";
+    // Every week there is something to summarize, or a summary of
+    private static final String WEEKS_QUERY =
+            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " UNION ALL SELECT " + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_DATE +
+            " FROM " + ArchiveEntry.TABLE_NAME + " WHERE " + ArchiveEntry.COLUMN_DAYS + " = 1" +
+            " UNION ALL SELECT " + SummaryEntry.COLUMN_LOC_KEY + ", " + SummaryEntry.COLUMN_DATE +
+            " FROM " + SummaryEntry.TABLE_NAME;
+
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_SHORT_DESC = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+
+    /**
+     * Recomputes the weeks of the given weather rows.  Call it in the transaction that wrote
+     * them, so the summaries are never read out of step with the forecast.
+     *
+     * @param keys the location and date of every row written or deleted, or null if they are
+     *             not known, which recomputes every week
+     */
+    static void update(SQLiteDatabase db, List<long[]> keys) {
+        if (keys == null) {
+            rebuild(db);
+            return;
+        }
+        Time time = new Time();
+        Set<String> done = new LinkedHashSet<String>();
+        for (long[] key : keys) {
+            long weekDate = WeatherArchive.getWeekStartDate(time, key[1]);
+            if (done.add(key[0] + "/" + weekDate)) {
+                updateWeek(db, key[0], weekDate);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the summary of every week that has days or a summary, and drops the summaries
+     * of the weeks that have neither.
+     */
+    static void rebuild(SQLiteDatabase db) {
+        List<long[]> keys = new ArrayList<long[]>();
+        Cursor cursor = db.rawQuery(WEEKS_QUERY, null);
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(new long[]{cursor.getLong(0), cursor.getLong(1)});
+            }
+        } finally {
+            cursor.close();
+        }
+        update(db, keys);
+    }
+
+    private static void updateWeek(SQLiteDatabase db, long locationId, long weekDate) {
+        String[] weekArgs = {Long.toString(locationId), Long.toString(weekDate),
+                Long.toString(weekDate + 7 * WeatherArchive.DAY_IN_MILLIS)};
+        if (DatabaseUtils.longForQuery(db, ROLLED_UP_QUERY,
+                new String[]{weekArgs[0], weekArgs[1]}) > 0) {
+            return;
+        }
+        Cursor cursor = db.rawQuery(DAYS_QUERY, new String[]{
+                weekArgs[0], weekArgs[1], weekArgs[2],
+                weekArgs[0], weekArgs[1], weekArgs[2],
+                weekArgs[0], weekArgs[1], weekArgs[2]});
+        ContentValues summary;
+        try {
+            summary = summarize(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        if (summary == null) {
+            // The week's last day is gone
+            db.delete(SummaryEntry.TABLE_NAME, SummaryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    SummaryEntry.COLUMN_DATE + " = ?", new String[]{weekArgs[0], weekArgs[1]});
+            return;
+        }
+        summary.put(SummaryEntry.COLUMN_LOC_KEY, locationId);
+        summary.put(SummaryEntry.COLUMN_DATE, weekDate);
+        // Replaces the week's old row, through the UNIQUE (location_id, date) constraint
+        db.insert(SummaryEntry.TABLE_NAME, null, summary);
+    }
+
+    /**
+     * @return the summary of the days in the cursor, or null if it has none
+     */
+    private static ContentValues summarize(Cursor cursor) {
+        int days = cursor.getCount();
+        if (days == 0) {
+            return null;
+        }
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sum = 0;
+        int precipitationDays = 0;
+        Map<Integer, Integer> conditionDays = new HashMap<Integer, Integer>();
+        int dominant = -1;
+        String dominantDescription = null;
+
+        while (cursor.moveToNext()) {
+            double dayMin = cursor.getDouble(COL_MIN_TEMP);
+            double dayMax = cursor.getDouble(COL_MAX_TEMP);
+            min = Math.min(min, dayMin);
+            max = Math.max(max, dayMax);
+            sum += (dayMin + dayMax) / 2;
+
+            int weatherId = cursor.getInt(COL_WEATHER_ID);
+            if (isPrecipitation(weatherId)) {
+                precipitationDays++;
+            }
+            Integer count = conditionDays.get(weatherId);
+            count = count == null ? 1 : count + 1;
+            conditionDays.put(weatherId, count);
+            // The earliest of the conditions that are equally common
+            if (dominant == -1 || count > conditionDays.get(dominant)) {
+                dominant = weatherId;
+                dominantDescription = cursor.getString(COL_SHORT_DESC);
+            }
+        }
+
+        ContentValues summary = new ContentValues();
+        summary.put(SummaryEntry.COLUMN_DAYS, days);
+        summary.put(SummaryEntry.COLUMN_MIN_TEMP, min);
+        summary.put(SummaryEntry.COLUMN_MAX_TEMP, max);
+        summary.put(SummaryEntry.COLUMN_AVG_TEMP, sum / days);
+        summary.put(SummaryEntry.COLUMN_PRECIPITATION_DAYS, precipitationDays);
+        summary.put(SummaryEntry.COLUMN_WEATHER_ID, dominant);
+        summary.put(SummaryEntry.COLUMN_SHORT_DESC, dominantDescription);
+        return summary;
+    }
+
+    // OpenWeatherMap's thunderstorm (2xx), drizzle (3xx), rain (5xx) and snow (6xx) codes;
+    // 7xx is haze and fog, 800 and up clear skies and clouds
+    static boolean isPrecipitation(int weatherId) {
+        return weatherId >= 200 && weatherId < 700;
+    }
+}
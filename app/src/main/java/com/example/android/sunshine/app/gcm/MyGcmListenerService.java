@@ -29,6 +29,7 @@ import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -70,6 +71,8 @@ public class MyGcmListenerService extends GcmListenerService {
                     String alert =
                             String.format(getString(R.string.gcm_weather_alert), weather, location);
                     sendNotification(alert);
+                    // Keep the forecast fresh while the alert lasts
+                    new SyncScheduler(this).recordAlert();
                 } catch (JSONException e) {
                     // JSON parsing failed, so we just let this message go, since GCM is not one
                     // of our critical features.
@@ -0,0 +1,517 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Turns the OpenWeatherMap daily forecast response into rows for the weather table.
+ *
+ * There are two ways in: {@link #parse(String, int)} builds the whole org.json tree, the way the
+ * sync adapter always did, and {@link #parse(InputStream, int)} walks the response token by token
+ * straight off the network stream, so neither the response String nor the object tree is ever
+ * held in memory.  Both produce exactly the same {@link Forecast}.
+ *
+ * {@link #parseHourly(InputStream)} reads the 3-hour forecast into rows for the hourly table
+ * the same streaming way.  It is only fetched where JsonReader exists, so it has no org.json
+ * twin.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // The 3-hour forecast.  Each step is an element of the "list" array too, with its start
+    // time in seconds, its readings in a "main" object, and its wind, rain and snow in objects
+    // of their own.
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_RAIN = "rain";
+    private static final String OWM_SNOW = "snow";
+    private static final String OWM_THREE_HOURS = "3h";
+
+    // The columns every day must provide; the streaming parser checks for them explicitly since
+    // it has no getDouble() to throw on a missing key for it.
+    private static final String[] REQUIRED_DAY_COLUMNS = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    // Likewise for every step; precipitation is left out when there is none
+    private static final String[] REQUIRED_HOUR_COLUMNS = new String[]{
+            WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID
+    };
+
+    /**
+     * The parsed forecast.  The weather rows do not carry a location key yet; the caller fills it
+     * in once the city has been stored in the location table.
+     */
+    public static class Forecast {
+        // The "cod" field of the response, HTTP_OK when the server left it out
+        public int statusCode = HttpURLConnection.HTTP_OK;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public final ArrayList<ContentValues> days = new ArrayList<ContentValues>();
+        // The steps of a 3-hour forecast, with their values already scaled for the hourly table
+        public final ArrayList<ContentValues> hours = new ArrayList<ContentValues>();
+
+        boolean hasCity;
+        boolean hasList;
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the weather rows.
+     *
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     *
+     * @param forecastJsonStr the complete response body
+     * @param julianStartDay the Julian day of the first entry of the list
+     */
+    public static Forecast parse(String forecastJsonStr, int julianStartDay)
+            throws JSONException {
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.statusCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.statusCode != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        Time dayTime = new Time();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            ContentValues weatherValues = new ContentValues();
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    temperatureObject.getDouble(OWM_MIN));
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+
+            forecast.days.add(weatherValues);
+        }
+        return forecast;
+    }
+
+    /**
+     * Reads the forecast straight from the response stream.  Only the values we store are ever
+     * materialized; everything else in the response is skipped over.  The stream is consumed
+     * but not closed.
+     *
+     * @param in the response body
+     * @param julianStartDay the Julian day of the first entry of the list
+     * @throws JSONException if the body is not a well formed forecast
+     * @throws IOException if reading from the stream fails
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Forecast parse(InputStream in, int julianStartDay)
+            throws JSONException, IOException {
+        return parse(in, julianStartDay, false);
+    }
+
+    /**
+     * Reads a 3-hour forecast straight from the response stream, into {@link Forecast#hours}.
+     * The stream is consumed but not closed.
+     *
+     * @param in the response body
+     * @throws JSONException if the body is not a well formed forecast
+     * @throws IOException if reading from the stream fails
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Forecast parseHourly(InputStream in) throws JSONException, IOException {
+        return parse(in, 0, true);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Forecast parse(InputStream in, int julianStartDay, boolean hourly)
+            throws JSONException, IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            Forecast forecast = readForecast(reader, julianStartDay, hourly);
+            if (forecast.statusCode == HttpURLConnection.HTTP_OK
+                    && (!forecast.hasCity || !forecast.hasList)) {
+                throw new JSONException("Forecast is missing its " +
+                        (forecast.hasCity ? OWM_LIST : OWM_CITY));
+            }
+            return forecast;
+        } catch (MalformedJsonException e) {
+            // A broken body is a server problem, not a network one
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader's way of saying a value had an unexpected type
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Forecast readForecast(JsonReader reader, int julianStartDay, boolean hourly)
+            throws JSONException, IOException {
+        Forecast forecast = new Forecast();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // "cod" is a number on success and a string on errors; nextDouble reads both
+                forecast.statusCode = (int) reader.nextDouble();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+            } else if (OWM_LIST.equals(name) && hourly) {
+                readHours(reader, forecast);
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, forecast, julianStartDay);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast)
+            throws JSONException, IOException {
+        boolean hasName = false;
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasName || !hasLatitude || !hasLongitude) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+        forecast.hasCity = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, Forecast forecast, int julianStartDay)
+            throws JSONException, IOException {
+        Time dayTime = new Time();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues weatherValues = new ContentValues();
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + forecast.days.size()));
+            readDay(reader, weatherValues);
+            for (String column : REQUIRED_DAY_COLUMNS) {
+                if (!weatherValues.containsKey(column)) {
+                    throw new JSONException("Day " + forecast.days.size() + " has no " + column);
+                }
+            }
+            forecast.days.add(weatherValues);
+        }
+        reader.endArray();
+        forecast.hasList = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, ContentValues weatherValues)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                        reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // Stored as an int, truncated the same way JSONObject.getInt() does
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                        reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                        reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                reader.nextDouble());
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readCondition(reader, weatherValues);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCondition(JsonReader reader, ContentValues weatherValues)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name) && reader.peek() != JsonToken.NULL) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                        reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                        (int) reader.nextDouble());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readHours(JsonReader reader, Forecast forecast)
+            throws JSONException, IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues hourValues = new ContentValues();
+            readHour(reader, hourValues);
+            for (String column : REQUIRED_HOUR_COLUMNS) {
+                if (!hourValues.containsKey(column)) {
+                    throw new JSONException("Step " + forecast.hours.size() + " has no " + column);
+                }
+            }
+            if (!hourValues.containsKey(WeatherContract.HourlyEntry.COLUMN_PRECIPITATION)) {
+                hourValues.put(WeatherContract.HourlyEntry.COLUMN_PRECIPITATION, 0);
+            }
+            forecast.hours.add(hourValues);
+        }
+        reader.endArray();
+        forecast.hasList = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readHour(JsonReader reader, ContentValues hourValues)
+            throws IOException {
+        double precipitation = 0;
+        boolean hasPrecipitation = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                hourValues.put(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR,
+                        reader.nextLong() / (60 * 60));
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hourValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(),
+                                        WeatherContract.HourlyEntry.TEMP_SCALE));
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hourValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(),
+                                        WeatherContract.HourlyEntry.PRESSURE_SCALE));
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hourValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+                                (int) reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hourValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(),
+                                        WeatherContract.HourlyEntry.WIND_SPEED_SCALE));
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hourValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES,
+                                WeatherContract.HourlyEntry.scale(reader.nextDouble(), 1));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_RAIN.equals(name) || OWM_SNOW.equals(name)) {
+                // Either can be an empty object, or hold the amount of the last three hours
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (OWM_THREE_HOURS.equals(reader.nextName())) {
+                        precipitation += reader.nextDouble();
+                        hasPrecipitation = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            hourValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                                    (int) reader.nextDouble());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (hasPrecipitation) {
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_PRECIPITATION,
+                    WeatherContract.HourlyEntry.scale(precipitation,
+                            WeatherContract.HourlyEntry.PRECIPITATION_SCALE));
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Disk cache for forecast responses.  Each cached URL keeps its last body along with the ETag
+ * and Last-Modified validators the server sent for it, so the next fetch can be a conditional
+ * request.  A 304, or an entry younger than the configured max-age, is answered from disk.
+ *
+ * The cache also remembers on which (Julian) day a body was last written to the database.
+ * Forecast rows are dated relative to the day they are stored on, so an unchanged body still
+ * has to be stored again once the day rolls over; that is what the cached body is kept for.
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last_modified";
+    private static final String META_FETCHED_AT = "fetched_at";
+    private static final String META_APPLIED_DAY = "applied_day";
+
+    private static final int NOT_APPLIED = -1;
+
+    private final SunshineHttpClient mClient;
+    private final File mDirectory;
+    private final long mMaxAgeMillis;
+
+    /**
+     * @param client the client the requests go through
+     * @param directory where the entries are kept; created on demand
+     * @param maxAgeMillis how long a stored body is served without asking the server at all.
+     *                     0 makes every fetch at least a conditional request.
+     */
+    public ForecastResponseCache(SunshineHttpClient client, File directory, long maxAgeMillis) {
+        mClient = client;
+        mDirectory = directory;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Fetches the given URL, going to the network only when the cached entry is missing or
+     * older than max-age.  The returned response must be closed.
+     */
+    public Response fetch(URL url) throws IOException {
+        String key = keyFor(url);
+        File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+        File metaFile = new File(mDirectory, key + META_SUFFIX);
+
+        Properties meta = readMeta(metaFile);
+        if (meta != null && !bodyFile.exists()) {
+            // Validators without a body are of no use to us
+            metaFile.delete();
+            meta = null;
+        }
+
+        if (meta != null) {
+            long fetchedAt = Long.parseLong(meta.getProperty(META_FETCHED_AT, "0"));
+            long age = System.currentTimeMillis() - fetchedAt;
+            if (age >= 0 && age < mMaxAgeMillis) {
+                return new Response(this, key, meta, null, null, new FileInputStream(bodyFile),
+                        true);
+            }
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        if (meta != null) {
+            String etag = meta.getProperty(META_ETAG);
+            String lastModified = meta.getProperty(META_LAST_MODIFIED);
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+        }
+        SunshineHttpClient.Response httpResponse = mClient.get(url, headers);
+        int code = httpResponse.getCode();
+
+        if (meta != null && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            httpResponse.close();
+            // The server vouched for our copy, so it counts as freshly fetched
+            meta.setProperty(META_FETCHED_AT, Long.toString(System.currentTimeMillis()));
+            writeMeta(metaFile, meta);
+            return new Response(this, key, meta, null, httpResponse,
+                    new FileInputStream(bodyFile), true);
+        }
+        if (code >= HttpURLConnection.HTTP_MULT_CHOICE) {
+            httpResponse.close();
+            throw new IOException("HTTP " + code + " fetching " + url);
+        }
+
+        InputStream networkStream;
+        try {
+            networkStream = httpResponse.getBody();
+        } catch (IOException e) {
+            httpResponse.close();
+            throw e;
+        }
+
+        Properties newMeta = new Properties();
+        String etag = httpResponse.getHeader("ETag");
+        String lastModified = httpResponse.getHeader("Last-Modified");
+        if (etag != null) {
+            newMeta.setProperty(META_ETAG, etag);
+        }
+        if (lastModified != null) {
+            newMeta.setProperty(META_LAST_MODIFIED, lastModified);
+        }
+        newMeta.setProperty(META_FETCHED_AT, Long.toString(System.currentTimeMillis()));
+        newMeta.setProperty(META_APPLIED_DAY, Integer.toString(NOT_APPLIED));
+
+        mDirectory.mkdirs();
+        File tempFile = new File(mDirectory, key + TEMP_SUFFIX);
+        TeeInputStream body = new TeeInputStream(networkStream, new FileOutputStream(tempFile));
+        return new Response(this, key, newMeta, httpResponse, httpResponse, body, false);
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void commit(Response response, int julianDay) throws IOException {
+        File bodyFile = new File(mDirectory, response.mKey + BODY_SUFFIX);
+        File metaFile = new File(mDirectory, response.mKey + META_SUFFIX);
+        if (response.mBody instanceof TeeInputStream) {
+            TeeInputStream tee = (TeeInputStream) response.mBody;
+            // The parser may have stopped at the closing brace; keep the body byte-exact
+            tee.drain();
+            tee.closeCopy();
+            File tempFile = new File(mDirectory, response.mKey + TEMP_SUFFIX);
+            // Invalidate the old validators before swapping the body underneath them
+            metaFile.delete();
+            if (!tempFile.renameTo(bodyFile)) {
+                throw new IOException("Unable to store " + bodyFile);
+            }
+        }
+        response.mMeta.setProperty(META_APPLIED_DAY, Integer.toString(julianDay));
+        writeMeta(metaFile, response.mMeta);
+    }
+
+    private static Properties readMeta(File metaFile) {
+        if (!metaFile.exists()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            meta.load(in);
+            return meta;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unreadable cache entry " + metaFile, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) throws IOException {
+        OutputStream out = new FileOutputStream(metaFile);
+        try {
+            meta.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String keyFor(URL url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.toString().getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device ships MD5 and UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+
+    /**
+     * A forecast body, either streaming in from the server (and onto disk as it is read) or
+     * read back from the cache.
+     */
+    public static class Response {
+        private final ForecastResponseCache mCache;
+        private final String mKey;
+        private final Properties mMeta;
+        private final SunshineHttpClient.Response mHttpResponse;
+        // The request that went to the network, if any, even when it only confirmed the copy
+        // on disk
+        private final SunshineHttpClient.Response mNetworkResponse;
+        private final InputStream mBody;
+        private final boolean mFromCache;
+
+        private Response(ForecastResponseCache cache, String key, Properties meta,
+                         SunshineHttpClient.Response httpResponse,
+                         SunshineHttpClient.Response networkResponse, InputStream body,
+                         boolean fromCache) {
+            mCache = cache;
+            mKey = key;
+            mMeta = meta;
+            mHttpResponse = httpResponse;
+            mNetworkResponse = networkResponse;
+            mBody = body;
+            mFromCache = fromCache;
+        }
+
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return true if the body came off the disk, either because the server answered 304
+         * or because the entry was still within max-age.
+         */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+
+        /**
+         * @return the request that went to the network for this response, for its timings and
+         * sizes, or null if the response was served from disk without asking the server
+         */
+        public SunshineHttpClient.Response getNetworkResponse() {
+            return mNetworkResponse;
+        }
+
+        /**
+         * @return true if this exact body has already been stored on the given Julian day, in
+         * which case there is nothing to parse or write.
+         */
+        public boolean wasStoredOn(int julianDay) {
+            return mFromCache && Integer.parseInt(
+                    mMeta.getProperty(META_APPLIED_DAY, Integer.toString(NOT_APPLIED))) == julianDay;
+        }
+
+        /**
+         * Records that the body has been stored in the database on the given Julian day.  For a
+         * body fresh from the network this is what makes it a cache entry: a body that failed
+         * to parse or store is never offered again.
+         */
+        public void commit(int julianDay) throws IOException {
+            mCache.commit(this, julianDay);
+        }
+
+        public void close() {
+            if (mBody instanceof TeeInputStream) {
+                ((TeeInputStream) mBody).closeCopy();
+                // An uncommitted download is useless
+                new File(mCache.mDirectory, mKey + TEMP_SUFFIX).delete();
+            }
+            if (mHttpResponse != null) {
+                // Lets the client finish the body so the connection can be reused
+                mHttpResponse.close();
+            } else {
+                closeQuietly(mBody);
+            }
+        }
+    }
+
+    /**
+     * Copies everything read from the network onto disk.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private OutputStream mCopy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mCopy != null) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && mCopy != null) {
+                mCopy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipped bytes would leave a hole in the copy, so read them instead
+            byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+            long skipped = 0;
+            while (skipped < byteCount) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, byteCount - skipped));
+                if (read == -1) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // keep reading
+            }
+        }
+
+        void closeCopy() {
+            if (mCopy != null) {
+                closeQuietly(mCopy);
+                mCopy = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,563 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Syncs the forecasts of any number of locations in one go.  The requests run in parallel on a
+ * small, bounded pool, so a sync takes about as long as its slowest few requests instead of the
+ * sum of all of them.  Whatever came back is then written from the calling thread, in a single
+ * batch: the locations, their weather rows and the pruning of past days all go into one
+ * transaction, and observers are notified once it commits.
+ */
+public class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    // Enough to hide the latency of a handful of requests, few enough not to exceed the
+    // platform's keep-alive pool (5 connections per host) or hammer OpenWeatherMap
+    public static final int MAX_PARALLEL_REQUESTS = 4;
+    // Idle fetch threads go away between syncs
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final String QUERY_PARAM = "q";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    /**
+     * A location to fetch the forecast for.  The weather is stored under its location setting;
+     * when coordinates are known (e.g. from the Place Picker) they are what the server is asked
+     * about, since it may not understand the address the setting holds.
+     */
+    public static class LocationQuery {
+        final String locationSetting;
+        final boolean hasCoordinates;
+        final double latitude;
+        final double longitude;
+
+        private LocationQuery(String locationSetting, boolean hasCoordinates, double latitude,
+                              double longitude) {
+            this.locationSetting = locationSetting;
+            this.hasCoordinates = hasCoordinates;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        public static LocationQuery forSetting(String locationSetting) {
+            return new LocationQuery(locationSetting, false, 0, 0);
+        }
+
+        public static LocationQuery forCoordinates(String locationSetting, double latitude,
+                                                   double longitude) {
+            return new LocationQuery(locationSetting, true, latitude, longitude);
+        }
+    }
+
+    /**
+     * What a sync did, location by location.
+     */
+    public static class Result {
+        private final Map<String, Integer> mStatuses = new LinkedHashMap<String, Integer>();
+        private int mLocationsStored;
+        private int mRowsWritten;
+
+        /**
+         * @return one of the SunshineSyncAdapter.LOCATION_STATUS_* values, or
+         * LOCATION_STATUS_UNKNOWN for a location that was not part of the sync.
+         */
+        @SunshineSyncAdapter.LocationStatus
+        public int getStatus(String locationSetting) {
+            Integer status = mStatuses.get(locationSetting);
+            return status == null ? SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN : status;
+        }
+
+        /**
+         * @return how many locations got new weather rows.  Locations whose forecast had not
+         * changed since it was last stored count as OK, but not as stored.
+         */
+        public int getLocationsStored() {
+            return mLocationsStored;
+        }
+
+        /**
+         * @return how many weather rows were inserted or changed.  A location whose forecast
+         * came back with the same numbers writes nothing.
+         */
+        public int getRowsWritten() {
+            return mRowsWritten;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final ForecastResponseCache mResponseCache;
+    private final String mBaseUrl;
+    private final String mApiKey;
+    private final ExecutorService mExecutor;
+    // Where the 3-hour forecast comes from, or null to sync the daily forecast only
+    private volatile String mHourlyBaseUrl;
+
+    /**
+     * @param baseUrl the forecast endpoint, e.g.
+     *                "http://api.openweathermap.org/data/2.5/forecast/daily?"
+     */
+    public ForecastSyncEngine(ContentResolver contentResolver, ForecastResponseCache responseCache,
+                              String baseUrl, String apiKey) {
+        mContentResolver = contentResolver;
+        mResponseCache = responseCache;
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_REQUESTS,
+                MAX_PARALLEL_REQUESTS, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ForecastSync-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Also syncs the 3-hour forecast of every location, into the hourly table.  It is parsed
+     * straight off the stream, so it is only fetched on Honeycomb and up.  A location whose
+     * 3-hour forecast fails still gets its daily forecast stored.
+     *
+     * @param hourlyBaseUrl the 3-hour forecast endpoint, e.g.
+     *                      "http://api.openweathermap.org/data/2.5/forecast?", or null to stop
+     */
+    public void setHourlyBaseUrl(String hourlyBaseUrl) {
+        mHourlyBaseUrl = hourlyBaseUrl;
+    }
+
+    /**
+     * Fetches and stores the forecast of every given location.  Blocks until all of them are
+     * done, so it must not be called from the UI thread.
+     *
+     * @param locations where to sync the weather for; a location setting listed twice is only
+     *                  fetched once
+     * @param julianStartDay the (local) Julian day the forecasts start on
+     */
+    public Result sync(List<LocationQuery> locations, int julianStartDay) {
+        return sync(locations, julianStartDay, new SyncTrace());
+    }
+
+    /**
+     * Same as {@link #sync(List, int)}, timing the requests, the parsing and the writes into
+     * the given trace.
+     */
+    public Result sync(List<LocationQuery> locations, final int julianStartDay,
+                       final SyncTrace trace) {
+        Map<String, LocationQuery> uniqueLocations = new LinkedHashMap<String, LocationQuery>();
+        for (LocationQuery location : locations) {
+            if (!uniqueLocations.containsKey(location.locationSetting)) {
+                uniqueLocations.put(location.locationSetting, location);
+            }
+        }
+
+        List<Future<Fetch>> futures = new ArrayList<Future<Fetch>>(uniqueLocations.size());
+        for (final LocationQuery location : uniqueLocations.values()) {
+            futures.add(mExecutor.submit(new Callable<Fetch>() {
+                @Override
+                public Fetch call() {
+                    return fetch(location, julianStartDay, trace);
+                }
+            }));
+        }
+
+        List<Fetch> fetches = new ArrayList<Fetch>(futures.size());
+        try {
+            for (Future<Fetch> future : futures) {
+                fetches.add(future.get());
+            }
+            return store(fetches, julianStartDay, trace);
+        } catch (InterruptedException e) {
+            // The sync was cancelled: keep what already arrived and abandon the rest
+            for (Future<Fetch> future : futures.subList(fetches.size(), futures.size())) {
+                if (!future.cancel(true)) {
+                    try {
+                        fetches.add(future.get());
+                    } catch (InterruptedException | ExecutionException ignored) {
+                        // The future is done and fetch() does not throw
+                    }
+                }
+            }
+            Thread.currentThread().interrupt();
+            return store(fetches, julianStartDay, trace);
+        } catch (ExecutionException e) {
+            // fetch() reports its failures in its result, so this is a bug
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Fetch fetch : fetches) {
+                if (fetch.response != null) {
+                    fetch.response.close();
+                    addRequest(trace, fetch.response);
+                }
+                if (fetch.hourlyResponse != null) {
+                    fetch.hourlyResponse.close();
+                    addRequest(trace, fetch.hourlyResponse);
+                }
+            }
+        }
+    }
+
+    private static void addRequest(SyncTrace trace, ForecastResponseCache.Response response) {
+        SunshineHttpClient.Response networkResponse = response.getNetworkResponse();
+        if (networkResponse != null) {
+            trace.addRequest(networkResponse);
+        }
+    }
+
+    /**
+     * Stops the fetch threads.  The engine cannot be used afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * The outcome of fetching one location, before anything is written.
+     */
+    private static class Fetch {
+        final LocationQuery location;
+        @SunshineSyncAdapter.LocationStatus int status;
+        ForecastResponseCache.Response response;
+        ForecastJsonParser.Forecast forecast;
+        ForecastResponseCache.Response hourlyResponse;
+        ForecastJsonParser.Forecast hourly;
+
+        Fetch(LocationQuery location) {
+            this.location = location;
+        }
+    }
+
+    URL buildUrl(LocationQuery location) throws IOException {
+        return buildUrl(mBaseUrl, location, true);
+    }
+
+    private URL buildUrl(String baseUrl, LocationQuery location, boolean daily)
+            throws IOException {
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+        if (location.hasCoordinates) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(location.latitude))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(location.longitude));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, location.locationSetting);
+        }
+        uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS);
+        if (daily) {
+            // The 3-hour forecast always has five days' worth
+            uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS));
+        }
+        Uri builtUri = uriBuilder.appendQueryParameter(APPID_PARAM, mApiKey).build();
+        return new URL(builtUri.toString());
+    }
+
+    /**
+     * Runs on the fetch pool: requests and parses one forecast.  Never throws; the response,
+     * if any, is left open for the calling thread to commit and close.
+     */
+    private Fetch fetch(LocationQuery location, int julianStartDay, SyncTrace trace) {
+        Fetch fetch = fetchDaily(location, julianStartDay, trace);
+        String hourlyBaseUrl = mHourlyBaseUrl;
+        if (hourlyBaseUrl != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && fetch.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            fetchHourly(fetch, hourlyBaseUrl, julianStartDay, trace);
+        }
+        return fetch;
+    }
+
+    /**
+     * Requests and parses the 3-hour forecast of a location whose daily forecast came back.
+     * Failures are logged and leave the fetch without one.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void fetchHourly(Fetch fetch, String hourlyBaseUrl, int julianStartDay,
+                             SyncTrace trace) {
+        try {
+            fetch.hourlyResponse = mResponseCache.fetch(
+                    buildUrl(hourlyBaseUrl, fetch.location, false));
+            if (fetch.hourlyResponse.wasStoredOn(julianStartDay)) {
+                return;
+            }
+            ForecastJsonParser.Forecast hourly;
+            long parseStart = trace.beginStage(SyncTrace.STAGE_PARSE);
+            try {
+                hourly = ForecastJsonParser.parseHourly(fetch.hourlyResponse.getBody());
+            } finally {
+                trace.endParse(parseStart, getReadNanos(fetch.hourlyResponse));
+            }
+            if (hourly.statusCode == HttpURLConnection.HTTP_OK) {
+                fetch.hourly = hourly;
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(LOG_TAG, "Error fetching the 3-hour forecast of "
+                    + fetch.location.locationSetting, e);
+        }
+    }
+
+    private Fetch fetchDaily(LocationQuery location, int julianStartDay, SyncTrace trace) {
+        Fetch fetch = new Fetch(location);
+        try {
+            // A repeat request carries the validators of the stored copy, so an unchanged
+            // forecast comes back as a bodiless 304
+            fetch.response = mResponseCache.fetch(buildUrl(location));
+            if (fetch.response.wasStoredOn(julianStartDay)) {
+                // Exactly what is already in the database; skip the parse and the write
+                fetch.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return fetch;
+            }
+
+            InputStream inputStream = fetch.response.getBody();
+            ForecastJsonParser.Forecast forecast;
+            long parseStart = trace.beginStage(SyncTrace.STAGE_PARSE);
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    // Parse straight off the wire, without holding the response in memory
+                    forecast = ForecastJsonParser.parse(inputStream, julianStartDay);
+                } else {
+                    // JsonReader only arrived in Honeycomb, so older devices read the whole body
+                    String forecastJsonStr = readFully(inputStream);
+                    if (forecastJsonStr.length() == 0) {
+                        // Stream was empty.  No point in parsing.
+                        fetch.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        return fetch;
+                    }
+                    forecast = ForecastJsonParser.parse(forecastJsonStr, julianStartDay);
+                }
+            } finally {
+                trace.endParse(parseStart, getReadNanos(fetch.response));
+            }
+
+            switch (forecast.statusCode) {
+                case HttpURLConnection.HTTP_OK:
+                    fetch.forecast = forecast;
+                    fetch.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    fetch.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    fetch.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + location.locationSetting, e);
+            fetch.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error parsing " + location.locationSetting, e);
+            fetch.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        }
+        return fetch;
+    }
+
+    // How long the reads of a response have waited on the network so far
+    private static long getReadNanos(ForecastResponseCache.Response response) {
+        SunshineHttpClient.Response networkResponse = response.getNetworkResponse();
+        return networkResponse == null ? 0 : networkResponse.getReadNanos();
+    }
+
+    /**
+     * Writes every parsed forecast in a single batch, then marks the responses as stored.
+     */
+    private Result store(List<Fetch> fetches, int julianStartDay, SyncTrace trace) {
+        Result result = new Result();
+        List<Fetch> stored = new ArrayList<Fetch>();
+        List<Fetch> storedHourly = new ArrayList<Fetch>();
+        for (Fetch fetch : fetches) {
+            result.mStatuses.put(fetch.location.locationSetting, fetch.status);
+            if (fetch.forecast != null) {
+                stored.add(fetch);
+            }
+            if (fetch.hourly != null) {
+                storedHourly.add(fetch);
+            }
+        }
+        if (stored.isEmpty() && storedHourly.isEmpty()) {
+            return result;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<Integer> weatherOperations = new ArrayList<Integer>();
+        Map<Fetch, Integer> locationOperations = new LinkedHashMap<Fetch, Integer>();
+        for (Fetch fetch : fetches) {
+            if (fetch.forecast == null && fetch.hourly == null) {
+                continue;
+            }
+            // Looks the location up, and adds it if it is new; either way its result holds the
+            // location's URI, which the days below take their location ID from.  Both
+            // responses name the city.
+            ForecastJsonParser.Forecast city = fetch.forecast != null ? fetch.forecast : fetch.hourly;
+            int locationOperation = operations.size();
+            locationOperations.put(fetch, locationOperation);
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.buildGetOrInsertUri())
+                    .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME, city.cityName)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            fetch.location.locationSetting)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT, city.cityLatitude)
+                    .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG, city.cityLongitude)
+                    .build());
+            if (fetch.forecast == null) {
+                continue;
+            }
+            // Only the days whose forecast changed are written
+            for (ContentValues weatherValues : fetch.forecast.days) {
+                weatherOperations.add(operations.size());
+                operations.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.WeatherEntry.buildWeatherUpsertUri())
+                        .withValues(weatherValues)
+                        .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                                locationOperation)
+                        .build());
+            }
+        }
+        // move old data to the archive, which keeps its own, bounded, history
+        Time dayTime = new Time();
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.buildWeatherArchivingUri())
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                .build());
+        if (!storedHourly.isEmpty()) {
+            // and the steps before today, which nobody looks back at
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.HourlyEntry.COLUMN_EPOCH_HOUR + " < ?",
+                            new String[] {Long.toString(WeatherContract.HourlyEntry.toEpochHour(
+                                    dayTime.setJulianDay(julianStartDay)))})
+                    .build());
+        }
+
+        // One transaction, so the sync is stored completely or not at all, and observers are
+        // notified once it is
+        ContentProviderResult[] results;
+        long storeStart = trace.beginStage(SyncTrace.STAGE_STORE);
+        try {
+            results = mContentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing the forecasts", e);
+            for (Fetch fetch : locationOperations.keySet()) {
+                result.mStatuses.put(fetch.location.locationSetting,
+                        SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+            }
+            return result;
+        } finally {
+            trace.endStage(SyncTrace.STAGE_STORE, storeStart);
+        }
+        for (int index : weatherOperations) {
+            result.mRowsWritten += results[index].count;
+        }
+
+        for (Fetch fetch : stored) {
+            commit(fetch.response, fetch, julianStartDay);
+        }
+        result.mLocationsStored = stored.size();
+
+        if (!storedHourly.isEmpty()) {
+            long storeHourlyStart = trace.beginStage(SyncTrace.STAGE_STORE_HOURLY);
+            try {
+                storeHourly(storedHourly, locationOperations, results, julianStartDay);
+            } finally {
+                trace.endStage(SyncTrace.STAGE_STORE_HOURLY, storeHourlyStart);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the 3-hour forecasts, under the location IDs the batch resolved, in one bulk
+     * insert of their own.  They stay out of the batch because each of the forty steps of
+     * every location would be an operation there, while the hourly bulk insert binds them all
+     * to a single compiled statement.
+     */
+    private void storeHourly(List<Fetch> storedHourly, Map<Fetch, Integer> locationOperations,
+                             ContentProviderResult[] results, int julianStartDay) {
+        List<ContentValues> hours = new ArrayList<ContentValues>();
+        for (Fetch fetch : storedHourly) {
+            long locationId = ContentUris.parseId(results[locationOperations.get(fetch)].uri);
+            for (ContentValues hourValues : fetch.hourly.hours) {
+                hourValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+                hours.add(hourValues);
+            }
+        }
+        mContentResolver.bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                hours.toArray(new ContentValues[hours.size()]));
+        for (Fetch fetch : storedHourly) {
+            commit(fetch.hourlyResponse, fetch, julianStartDay);
+        }
+    }
+
+    private static void commit(ForecastResponseCache.Response response, Fetch fetch,
+                               int julianStartDay) {
+        try {
+            response.commit(julianStartDay);
+        } catch (IOException e) {
+            // The forecast is stored; we just won't be able to skip it next time
+            Log.w(LOG_TAG, "Unable to cache the forecast for "
+                    + fetch.location.locationSetting, e);
+        }
+    }
+
+    /**
+     * Reads the whole response into a String, for the devices that have to go through the
+     * org.json parser.
+     */
+    private static String readFully(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache of condition art, pre-rendered at the size of a notification's large icon.  An
+ * entry is keyed by the art URL, which is made of the art pack in use and the condition of the
+ * weatherId, so switching art packs simply misses until the new pack's art is prefetched.
+ *
+ * get() only ever reads the disk, so posting a notification never waits on the network; art
+ * that is not cached yet is rendered by prefetch() on a background thread.  Only the
+ * MAX_ENTRIES most recently used icons are kept.
+ */
+public class NotificationIconCache {
+    private static final String LOG_TAG = NotificationIconCache.class.getSimpleName();
+
+    static final int MAX_ENTRIES = 16;
+
+    private static final String ICON_SUFFIX = ".png";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Renders the art at a URL.  Called on the cache's background thread, so it may block on
+     * the network.
+     */
+    interface Renderer {
+        /**
+         * @return the art fitted into width x height, or null if it could not be had
+         */
+        Bitmap render(String artUrl, int width, int height);
+    }
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final Renderer mRenderer;
+    private final int mWidth;
+    private final int mHeight;
+    private final ThreadPoolExecutor mExecutor;
+    // Art queued for rendering, so that it is not queued twice
+    private final Set<String> mPending = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * @param directory where the icons are kept; created on demand
+     */
+    public NotificationIconCache(Context context, File directory) {
+        this(context, directory, new GlideRenderer(context),
+                getLargeIconWidth(context.getResources()),
+                getLargeIconHeight(context.getResources()));
+    }
+
+    NotificationIconCache(Context context, File directory, Renderer renderer, int width,
+                          int height) {
+        mContext = context;
+        mDirectory = directory;
+        mRenderer = renderer;
+        mWidth = width;
+        mHeight = height;
+
+        mExecutor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "NotificationIcons");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the cached large icon for the condition in the current art pack, or null if it
+     * has not been prefetched yet or the condition has no art
+     */
+    public Bitmap get(int weatherId) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        if (artUrl == null) {
+            return null;
+        }
+        File iconFile = getIconFile(artUrl);
+        if (!iconFile.exists()) {
+            return null;
+        }
+        Bitmap icon = BitmapFactory.decodeFile(iconFile.getPath());
+        if (icon == null) {
+            Log.w(LOG_TAG, "Unreadable icon " + iconFile);
+            iconFile.delete();
+            return null;
+        }
+        // Keeps the entry from being trimmed
+        iconFile.setLastModified(System.currentTimeMillis());
+        return icon;
+    }
+
+    /**
+     * Renders the art of the given conditions that is not cached yet, in the background.
+     *
+     * @return the pending rendering, for callers that need to wait for it
+     */
+    public Future<?> prefetch(Collection<Integer> weatherIds) {
+        // Resolve the art now, against the art pack the caller saw
+        final Set<String> artUrls = new LinkedHashSet<String>();
+        for (int weatherId : weatherIds) {
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            if (artUrl != null && !getIconFile(artUrl).exists() && mPending.add(artUrl)) {
+                artUrls.add(artUrl);
+            }
+        }
+        return mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (String artUrl : artUrls) {
+                    try {
+                        render(artUrl);
+                    } finally {
+                        mPending.remove(artUrl);
+                    }
+                }
+                if (!artUrls.isEmpty()) {
+                    trim();
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops every cached icon.
+     */
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private void render(String artUrl) {
+        Bitmap icon = mRenderer.render(artUrl, mWidth, mHeight);
+        if (icon == null) {
+            return;
+        }
+        mDirectory.mkdirs();
+        String key = keyFor(artUrl, mWidth, mHeight);
+        File tempFile = new File(mDirectory, key + TEMP_SUFFIX);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(new File(mDirectory, key + ICON_SUFFIX))) {
+                throw new IOException("Unable to store " + key);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error caching icon for " + artUrl, e);
+            tempFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void trim() {
+        File[] icons = mDirectory.listFiles();
+        if (icons == null || icons.length <= MAX_ENTRIES) {
+            return;
+        }
+        // Most recently used first
+        Arrays.sort(icons, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified > rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = MAX_ENTRIES; i < icons.length; i++) {
+            icons[i].delete();
+        }
+    }
+
+    private File getIconFile(String artUrl) {
+        return new File(mDirectory, keyFor(artUrl, mWidth, mHeight) + ICON_SUFFIX);
+    }
+
+    private static String keyFor(String artUrl, int width, int height) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(
+                    (artUrl + '@' + width + 'x' + height).getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Android device ships MD5 and UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+
+    // On Honeycomb and higher devices, we can retrieve the size of the large icon
+    // Prior to that, we use a fixed size
+    @SuppressLint("InlinedApi")
+    private static int getLargeIconWidth(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    @SuppressLint("InlinedApi")
+    private static int getLargeIconHeight(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    /**
+     * Downloads the art through Glide.  A failed download is not cached, so that the bundled
+     * art does not stand in for the art pack for good.
+     */
+    private static class GlideRenderer implements Renderer {
+        private final Context mContext;
+
+        GlideRenderer(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public Bitmap render(String artUrl, int width, int height) {
+            try {
+                return Glide.with(mContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .fitCenter()
+                        .into(width, height).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/**
+ * Keeps the syncs off the weather server while it is failing.  Every sync that cannot reach
+ * the server, or gets a 5xx from it, pushes the next one back by a jittered, exponentially
+ * growing delay, which the sync adapter hands to the SyncManager through
+ * SyncResult.delayUntil.  After FAILURE_THRESHOLD failures in a row the circuit opens: every
+ * sync, manual ones included, is turned away without a request until the cool-down is over.  The first sync after that is let through as a trial; if it succeeds the
+ * circuit closes, and if it fails it opens again for longer.
+ *
+ * The state lives in the shared preferences, since the sync process does not outlive a sync
+ * for long.
+ */
+public class RetryPolicy {
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    // The delay after the first failure, doubled after each one that follows
+    static final long BASE_BACKOFF_MILLIS = 1000 * 60;
+    static final long MAX_BACKOFF_MILLIS = 1000 * 60 * 60 * 2;
+    // Consecutive failures that open the circuit
+    static final int FAILURE_THRESHOLD = 3;
+    // The shortest time the circuit stays open
+    static final long COOL_DOWN_MILLIS = 1000 * 60 * 15;
+
+    private final Context mContext;
+    private final SyncScheduler.Clock mClock;
+    private final Random mRandom;
+
+    public RetryPolicy(Context context) {
+        this(context, SyncScheduler.SYSTEM_CLOCK, new Random());
+    }
+
+    public RetryPolicy(Context context, SyncScheduler.Clock clock, Random random) {
+        mContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        mClock = clock;
+        mRandom = random;
+    }
+
+    /**
+     * @return one of STATE_CLOSED, STATE_OPEN or STATE_HALF_OPEN
+     */
+    public synchronized int getState() {
+        return getState(mContext, getPreferences(), mClock.currentTimeMillis());
+    }
+
+    /**
+     * Reads the state straight from the shared preferences, for callers that only want to
+     * know, such as the location status shown in the UI.
+     *
+     * @return whether syncs are being turned away now
+     */
+    public static boolean isOpen(Context context) {
+        return getState(context, PreferenceManager.getDefaultSharedPreferences(context),
+                SyncScheduler.SYSTEM_CLOCK.currentTimeMillis()) == STATE_OPEN;
+    }
+
+    private static int getState(Context context, SharedPreferences prefs, long now) {
+        if (prefs.getInt(context.getString(R.string.pref_sync_failures_key), 0)
+                < FAILURE_THRESHOLD) {
+            return STATE_CLOSED;
+        }
+        return now < getRetryAt(context, prefs) ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * @return whether a sync may go to the server now
+     */
+    public boolean allowRequest() {
+        return getState() != STATE_OPEN;
+    }
+
+    /**
+     * @return when the next sync may run, in milliseconds since the epoch, or 0 if it may run
+     * at any time
+     */
+    public synchronized long getRetryAt() {
+        return getRetryAt(mContext, getPreferences());
+    }
+
+    /**
+     * Records a failed sync.
+     *
+     * @return when the next sync should run, in milliseconds since the epoch
+     */
+    public synchronized long onFailure() {
+        SharedPreferences prefs = getPreferences();
+        String failuresKey = mContext.getString(R.string.pref_sync_failures_key);
+        int failures = prefs.getInt(failuresKey, 0) + 1;
+
+        long delay = getBackoffMillis(failures);
+        if (failures >= FAILURE_THRESHOLD) {
+            delay = Math.max(delay, COOL_DOWN_MILLIS);
+        }
+        long retryAt = mClock.currentTimeMillis() + delay;
+        prefs.edit()
+                .putInt(failuresKey, failures)
+                .putLong(mContext.getString(R.string.pref_sync_retry_at_key), retryAt)
+                .commit();
+        return retryAt;
+    }
+
+    /**
+     * Records a sync that reached the server, which closes the circuit.
+     */
+    public synchronized void onSuccess() {
+        SharedPreferences prefs = getPreferences();
+        String failuresKey = mContext.getString(R.string.pref_sync_failures_key);
+        if (prefs.getInt(failuresKey, 0) == 0) {
+            return;
+        }
+        prefs.edit()
+                .remove(failuresKey)
+                .remove(mContext.getString(R.string.pref_sync_retry_at_key))
+                .commit();
+    }
+
+    /**
+     * The exponential delay after the given number of failures, with "equal jitter": half of
+     * it is fixed and the other half random, so that devices that failed together do not all
+     * come back at once, and none of them comes back right away.
+     */
+    long getBackoffMillis(int failures) {
+        long delay = MAX_BACKOFF_MILLIS;
+        // Past 2^30 minutes, the cap has long been reached
+        if (failures <= 30) {
+            delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (failures - 1));
+        }
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    private static long getRetryAt(Context context, SharedPreferences prefs) {
+        return prefs.getLong(context.getString(R.string.pref_sync_retry_at_key), 0);
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one way the sync package talks HTTP.  Every request asks for a gzipped response, runs under
+ * connect and read timeouts, and hands its connection back to the platform's keep-alive pool
+ * when the response is closed, so consecutive fetches from the same host share a socket.
+ *
+ * HttpURLConnection only pools a connection whose body was read to the end and whose stream was
+ * closed without calling disconnect(); {@link Response#close()} takes care of both.
+ */
+public class SunshineHttpClient {
+    private static final String LOG_TAG = SunshineHttpClient.class.getSimpleName();
+
+    // How long to wait for the server to accept the connection
+    public static final int DEFAULT_CONNECT_TIMEOUT = 1000 * 15;
+    // How long to wait between two reads of the response
+    public static final int DEFAULT_READ_TIMEOUT = 1000 * 20;
+
+    // A response body left unread larger than this is not worth draining to save a connection
+    private static final int MAX_DRAIN_BYTES = 1024 * 64;
+
+    private static SunshineHttpClient sInstance;
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    public static synchronized SunshineHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new SunshineHttpClient(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        }
+        return sInstance;
+    }
+
+    public SunshineHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeout = connectTimeoutMillis;
+        mReadTimeout = readTimeoutMillis;
+    }
+
+    /**
+     * Sends a GET request and waits for the response headers.  The response must be closed,
+     * whatever its status code.
+     *
+     * @param url the URL to fetch
+     * @param headers extra request headers, may be null
+     */
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(mConnectTimeout);
+        urlConnection.setReadTimeout(mReadTimeout);
+        // Asking for gzip ourselves means we also have to inflate it ourselves, but it is the
+        // only way to see how many bytes actually came over the wire
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        try {
+            // Name lookup, and the TCP (and TLS) handshakes
+            TraceCompat.beginSection(SyncTrace.STAGE_SECTIONS[SyncTrace.STAGE_CONNECT]);
+            long start = System.nanoTime();
+            try {
+                urlConnection.connect();
+            } finally {
+                TraceCompat.endSection();
+            }
+            long connected = System.nanoTime();
+            // Sending the request, and waiting for the server to answer it
+            TraceCompat.beginSection(SyncTrace.STAGE_SECTIONS[SyncTrace.STAGE_FIRST_BYTE]);
+            int code;
+            try {
+                code = urlConnection.getResponseCode();
+            } finally {
+                TraceCompat.endSection();
+            }
+            return new Response(urlConnection, code, connected - start,
+                    System.nanoTime() - connected);
+        } catch (IOException e) {
+            // The connection is broken anyway, so make sure it does not go back to the pool
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * A response whose body may still be streaming in.
+     */
+    public static class Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final long mConnectNanos;
+        private final long mFirstByteNanos;
+        private CountingInputStream mWireStream;
+        private CountingInputStream mBody;
+        private boolean mClosed;
+
+        Response(HttpURLConnection connection, int code, long connectNanos,
+                 long firstByteNanos) {
+            mConnection = connection;
+            mCode = code;
+            mConnectNanos = connectNanos;
+            mFirstByteNanos = firstByteNanos;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded response body.  For error statuses this is the error page, which
+         * may be empty.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream raw = mCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream()
+                        : mConnection.getInputStream();
+                if (raw == null) {
+                    raw = new ByteArrayInputStream(new byte[0]);
+                }
+                mWireStream = new CountingInputStream(raw);
+                mBody = "gzip".equalsIgnoreCase(mConnection.getContentEncoding())
+                        ? new CountingInputStream(new GZIPInputStream(mWireStream))
+                        : mWireStream;
+            }
+            return mBody;
+        }
+
+        /**
+         * @return how many body bytes have been read off the connection so far, before
+         * decompression.
+         */
+        public long getWireBytes() {
+            return mWireStream == null ? 0 : mWireStream.getCount();
+        }
+
+        /**
+         * @return how many bytes of the body have been read so far, after decompression.
+         */
+        public long getBodyBytes() {
+            return mBody == null ? 0 : mBody.getCount();
+        }
+
+        /**
+         * @return how long opening the connection took, name lookup included
+         */
+        public long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /**
+         * @return how long the server took to send the headers once connected
+         */
+        public long getFirstByteNanos() {
+            return mFirstByteNanos;
+        }
+
+        /**
+         * @return how long reads of the body have spent waiting on the connection so far
+         */
+        public long getReadNanos() {
+            return mWireStream == null ? 0 : mWireStream.getReadNanos();
+        }
+
+        /**
+         * Finishes reading the body and releases the connection for reuse.
+         */
+        public void close() {
+            if (mClosed) return;
+            mClosed = true;
+            try {
+                InputStream body = getBody();
+                // Only a fully consumed connection is handed back to the pool
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = body.read(buffer)) != -1) {
+                    drained += read;
+                }
+                body.close();
+                if (drained >= MAX_DRAIN_BYTES) {
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Dropping connection to " + mConnection.getURL(), e);
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+        private long mReadNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) mCount += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collapses bursts of immediate sync requests for the same location into one sync.  A request
+ * joins the sync of its location that is already queued, or, if that sync is already running,
+ * is served by its result instead of queueing another fetch behind it.  Only once that sync
+ * finishes does a request for the location start a new one.
+ *
+ * A flight that never got to run, e.g. because the SyncManager dropped it while offline, or a
+ * sync that was killed before it finished, stops holding requests back after a timeout.
+ */
+class SyncCoalescer {
+
+    // How long a queued sync may take to start before it is assumed lost
+    static final long QUEUED_TIMEOUT_MILLIS = 1000 * 60;
+    // How long a running sync may take before it is assumed dead
+    static final long RUNNING_TIMEOUT_MILLIS = 1000 * 60 * 5;
+
+    /**
+     * The one sync that serves every request for a location until it finishes.
+     */
+    private static class Flight {
+        long requestedAt;
+        long startedAt;
+        // Requests served by this sync besides the first
+        int joined;
+    }
+
+    private final SyncScheduler.Clock mClock;
+    private final Map<String, Flight> mFlights = new HashMap<String, Flight>();
+
+    SyncCoalescer(SyncScheduler.Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @return true if the caller has to request a sync for the location, false if one that is
+     * queued or running will serve it
+     */
+    synchronized boolean request(String locationSetting) {
+        long now = mClock.currentTimeMillis();
+        Flight flight = mFlights.get(locationSetting);
+        if (flight != null && !isExpired(flight, now)) {
+            flight.joined++;
+            return false;
+        }
+        flight = new Flight();
+        flight.requestedAt = now;
+        mFlights.put(locationSetting, flight);
+        return true;
+    }
+
+    /**
+     * Marks the syncs of the given locations as running, whether they were requested through
+     * request() or not: a periodic sync that happens to start first serves the requests too.
+     */
+    synchronized void onSyncStarted(Collection<String> locationSettings) {
+        long now = mClock.currentTimeMillis();
+        for (String locationSetting : locationSettings) {
+            Flight flight = mFlights.get(locationSetting);
+            if (flight == null) {
+                flight = new Flight();
+                flight.requestedAt = now;
+                mFlights.put(locationSetting, flight);
+            }
+            flight.startedAt = now;
+        }
+    }
+
+    /**
+     * Lands the syncs of the given locations, so the next request for them starts a new one.
+     *
+     * @return how many requests the syncs served without a sync of their own
+     */
+    synchronized int onSyncFinished(Collection<String> locationSettings) {
+        int joined = 0;
+        for (String locationSetting : locationSettings) {
+            Flight flight = mFlights.remove(locationSetting);
+            if (flight != null) {
+                joined += flight.joined;
+            }
+        }
+        return joined;
+    }
+
+    private static boolean isExpired(Flight flight, long now) {
+        return flight.startedAt == 0
+                ? now - flight.requestedAt >= QUEUED_TIMEOUT_MILLIS
+                : now - flight.startedAt >= RUNNING_TIMEOUT_MILLIS;
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Picks how long to wait before the next periodic sync, instead of always waiting
+ * SunshineSyncAdapter.SYNC_INTERVAL.  A forecast that keeps coming back unchanged, and a user
+ * who has not looked at it for hours, stretch the wait; a forecast that is moving, or a weather
+ * alert, shorten it.  Whatever the wait, it is cut short so that a sync lands just before the
+ * time of day the user usually first opens the app.
+ *
+ * All the decisions are made against the injected Clock, so they can be tested without
+ * waiting for real time to pass.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    /**
+     * Where the scheduler gets the time from.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    // Bounds of the interval, in seconds like SYNC_INTERVAL
+    public static final int MIN_SYNC_INTERVAL = 60 * 60;
+    public static final int MAX_SYNC_INTERVAL = 60 * 60 * 12;
+    // While the user is away, a quiet forecast is not checked more often than this
+    public static final int AWAY_SYNC_INTERVAL = 60 * 60 * 6;
+
+    static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+    // How long without opening the app before the user counts as away, e.g. overnight
+    static final long AWAY_MILLIS = HOUR_IN_MILLIS * 4;
+    // Past this, there is no usual time to be fresh for
+    static final long INACTIVE_MILLIS = DAY_IN_MILLIS * 3;
+    // How long before the usual first open the sync should be done
+    static final long FIRST_OPEN_LEAD_MILLIS = 1000 * 60 * 30;
+    // How long a weather alert keeps the syncs at MIN_SYNC_INTERVAL
+    static final long ALERT_MILLIS = HOUR_IN_MILLIS * 6;
+    // Changed days per location, on average, from which the forecast counts as moving
+    static final int VOLATILE_ROWS_PER_LOCATION = 4;
+    static final int LOW_BATTERY_PERCENT = 20;
+
+    /**
+     * What the next interval is chosen from.
+     */
+    public static class Signals {
+        // From the sync that just ran
+        int locationsSynced;
+        int rowsWritten;
+        // 0 if never
+        long lastOpened;
+        long firstOpenedToday;
+        long lastAlert;
+        boolean charging;
+        int batteryPercent = 100;
+        boolean metered;
+
+        public Signals setSyncResult(int locationsSynced, int rowsWritten) {
+            this.locationsSynced = locationsSynced;
+            this.rowsWritten = rowsWritten;
+            return this;
+        }
+
+        /**
+         * @param lastOpened when the app was last opened
+         * @param firstOpenedToday when it was first opened on the day of lastOpened
+         */
+        public Signals setUsage(long lastOpened, long firstOpenedToday) {
+            this.lastOpened = lastOpened;
+            this.firstOpenedToday = firstOpenedToday;
+            return this;
+        }
+
+        public Signals setLastAlert(long lastAlert) {
+            this.lastAlert = lastAlert;
+            return this;
+        }
+
+        public Signals setBattery(boolean charging, int batteryPercent) {
+            this.charging = charging;
+            this.batteryPercent = batteryPercent;
+            return this;
+        }
+
+        public Signals setMetered(boolean metered) {
+            this.metered = metered;
+            return this;
+        }
+    }
+
+    private final Context mContext;
+    private final Clock mClock;
+
+    public SyncScheduler(Context context) {
+        this(context, SYSTEM_CLOCK);
+    }
+
+    public SyncScheduler(Context context, Clock clock) {
+        mContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        mClock = clock;
+    }
+
+    /**
+     * Chooses the interval of the next periodic sync.
+     *
+     * @param lastInterval the interval the syncs run at now, in seconds
+     * @return the interval to run them at from now on, in seconds
+     */
+    public int getNextInterval(int lastInterval, Signals signals) {
+        long now = mClock.currentTimeMillis();
+        if (signals.lastAlert > 0 && now - signals.lastAlert < ALERT_MILLIS) {
+            return MIN_SYNC_INTERVAL;
+        }
+
+        long interval = clamp(lastInterval);
+        if (signals.rowsWritten == 0) {
+            // Nothing changed, so the last wait was too short
+            interval *= 2;
+        } else if (signals.rowsWritten >= Math.max(1, signals.locationsSynced)
+                * VOLATILE_ROWS_PER_LOCATION) {
+            interval /= 2;
+        } else {
+            // Drift back towards the default
+            interval = (interval + SunshineSyncAdapter.SYNC_INTERVAL) / 2;
+        }
+
+        boolean away = signals.lastOpened == 0 || now - signals.lastOpened >= AWAY_MILLIS;
+        if (away && signals.rowsWritten == 0) {
+            interval = Math.max(interval, AWAY_SYNC_INTERVAL);
+        }
+        if (!signals.charging) {
+            if (signals.batteryPercent <= LOW_BATTERY_PERCENT) {
+                interval *= 2;
+            }
+            if (signals.metered) {
+                interval = Math.max(interval, SunshineSyncAdapter.SYNC_INTERVAL);
+            }
+        }
+        interval = clamp(interval);
+
+        // Fresh data for the first look of the day, as long as there is a habit to go by
+        long firstOpen = signals.firstOpenedToday;
+        if (firstOpen > 0 && now - signals.lastOpened < INACTIVE_MILLIS) {
+            long nextFirstOpen = firstOpen + DAY_IN_MILLIS;
+            while (nextFirstOpen - FIRST_OPEN_LEAD_MILLIS <= now) {
+                nextFirstOpen += DAY_IN_MILLIS;
+            }
+            long untilSync = (nextFirstOpen - FIRST_OPEN_LEAD_MILLIS - now) / 1000;
+            if (untilSync < interval) {
+                interval = Math.max(MIN_SYNC_INTERVAL, untilSync);
+            }
+        }
+        return (int) interval;
+    }
+
+    /**
+     * Reads the signals, picks the next interval and moves the periodic sync to it if it
+     * changed.  Call it at the end of every sync.
+     */
+    public void reschedule(int locationsSynced, int rowsWritten) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String intervalKey = mContext.getString(R.string.pref_sync_interval_key);
+        int lastInterval = prefs.getInt(intervalKey, SunshineSyncAdapter.SYNC_INTERVAL);
+
+        Signals signals = readSignals(prefs).setSyncResult(locationsSynced, rowsWritten);
+        int interval = getNextInterval(lastInterval, signals);
+        if (interval != lastInterval) {
+            Log.d(LOG_TAG, "Sync interval " + lastInterval + " s -> " + interval + " s");
+            SunshineSyncAdapter.configurePeriodicSync(mContext, interval, interval / 3);
+            prefs.edit().putInt(intervalKey, interval).commit();
+        }
+    }
+
+    /**
+     * Records that the user opened the app.
+     */
+    public void recordAppOpened() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        long now = mClock.currentTimeMillis();
+        long lastOpened = prefs.getLong(mContext.getString(R.string.pref_last_opened_key), 0);
+        SharedPreferences.Editor editor = prefs.edit();
+        if (lastOpened == 0 || getJulianDay(lastOpened) != getJulianDay(now)) {
+            editor.putLong(mContext.getString(R.string.pref_first_opened_key), now);
+        }
+        editor.putLong(mContext.getString(R.string.pref_last_opened_key), now);
+        editor.apply();
+    }
+
+    /**
+     * Records a weather alert, and syncs at MIN_SYNC_INTERVAL until it is ALERT_MILLIS old.
+     */
+    public void recordAlert() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        prefs.edit()
+                .putLong(mContext.getString(R.string.pref_last_alert_key),
+                        mClock.currentTimeMillis())
+                .putInt(mContext.getString(R.string.pref_sync_interval_key), MIN_SYNC_INTERVAL)
+                .apply();
+        SunshineSyncAdapter.configurePeriodicSync(mContext, MIN_SYNC_INTERVAL,
+                MIN_SYNC_INTERVAL / 3);
+    }
+
+    Signals readSignals(SharedPreferences prefs) {
+        Signals signals = new Signals()
+                .setUsage(prefs.getLong(mContext.getString(R.string.pref_last_opened_key), 0),
+                        prefs.getLong(mContext.getString(R.string.pref_first_opened_key), 0))
+                .setLastAlert(prefs.getLong(mContext.getString(R.string.pref_last_alert_key), 0));
+
+        // The battery state is a sticky broadcast, so no receiver is needed to read it
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            signals.setBattery(status == BatteryManager.BATTERY_STATUS_CHARGING
+                            || status == BatteryManager.BATTERY_STATUS_FULL,
+                    level >= 0 && scale > 0 ? level * 100 / scale : 100);
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        signals.setMetered(ConnectivityManagerCompat.isActiveNetworkMetered(cm));
+        return signals;
+    }
+
+    private static long clamp(long interval) {
+        return Math.max(MIN_SYNC_INTERVAL, Math.min(MAX_SYNC_INTERVAL, interval));
+    }
+
+    private static int getJulianDay(long millis) {
+        Time time = new Time();
+        time.set(millis);
+        return Time.getJulianDay(millis, time.gmtoff);
+    }
+}
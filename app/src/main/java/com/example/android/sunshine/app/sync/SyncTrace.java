@@ -0,0 +1,236 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.support.v4.os.TraceCompat;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTraceEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where a sync spends its time.  Each stage is timed into the trace, and also marked as a
+ * section for systrace.  The last MAX_RECORDS finished traces are kept in memory, and debug
+ * builds serve them through WeatherContract.SyncTraceEntry.CONTENT_URI.
+ *
+ * Stages may be timed from several threads at once; their times add up.
+ */
+public class SyncTrace {
+
+    public static final int STAGE_CONNECT = 0;
+    public static final int STAGE_FIRST_BYTE = 1;
+    public static final int STAGE_DOWNLOAD = 2;
+    public static final int STAGE_PARSE = 3;
+    public static final int STAGE_STORE = 4;
+    public static final int STAGE_STORE_HOURLY = 5;
+    public static final int STAGE_UPDATE_WIDGETS = 6;
+    public static final int STAGE_UPDATE_MUZEI = 7;
+    public static final int STAGE_NOTIFY_WEATHER = 8;
+
+    // The systrace section of each stage
+    static final String[] STAGE_SECTIONS = {
+            "Sync connect",
+            "Sync first byte",
+            "Sync download",
+            "Sync parse",
+            "Sync store",
+            "Sync store hourly",
+            "Sync update widgets",
+            "Sync update Muzei",
+            "Sync notify weather"
+    };
+
+    // The SyncTraceEntry column of each stage
+    static final String[] STAGE_COLUMNS = {
+            SyncTraceEntry.COLUMN_CONNECT_MS,
+            SyncTraceEntry.COLUMN_FIRST_BYTE_MS,
+            SyncTraceEntry.COLUMN_DOWNLOAD_MS,
+            SyncTraceEntry.COLUMN_PARSE_MS,
+            SyncTraceEntry.COLUMN_STORE_MS,
+            SyncTraceEntry.COLUMN_STORE_HOURLY_MS,
+            SyncTraceEntry.COLUMN_UPDATE_WIDGETS_MS,
+            SyncTraceEntry.COLUMN_UPDATE_MUZEI_MS,
+            SyncTraceEntry.COLUMN_NOTIFY_WEATHER_MS
+    };
+
+    // The SyncTraceEntry columns of the whole sync, which come before those of the stages
+    static final String[] RECORD_COLUMNS = {
+            SyncTraceEntry._ID,
+            SyncTraceEntry.COLUMN_STARTED_AT,
+            SyncTraceEntry.COLUMN_DURATION_MS,
+            SyncTraceEntry.COLUMN_LOCATIONS,
+            SyncTraceEntry.COLUMN_ROWS_WRITTEN,
+            SyncTraceEntry.COLUMN_REQUESTS,
+            SyncTraceEntry.COLUMN_WIRE_BYTES,
+            SyncTraceEntry.COLUMN_BODY_BYTES,
+            SyncTraceEntry.COLUMN_ALLOC_COUNT,
+            SyncTraceEntry.COLUMN_ALLOC_BYTES
+    };
+
+    public static final int MAX_RECORDS = 32;
+
+    // The ring of finished traces; sNextRecord counts every trace ever finished
+    private static final SyncTrace[] sRecords = new SyncTrace[MAX_RECORDS];
+    private static long sNextRecord;
+
+    private final long mStartedAt = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+    private final boolean mCountingAllocations;
+    private final AtomicLongArray mStageNanos = new AtomicLongArray(STAGE_SECTIONS.length);
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+
+    private long mId;
+    private long mDurationNanos;
+    private int mLocations;
+    private int mRowsWritten;
+    private long mAllocCount = -1;
+    private long mAllocBytes = -1;
+
+    /**
+     * A trace that is never finished, for callers that do not want one.
+     */
+    SyncTrace() {
+        this(false);
+    }
+
+    private SyncTrace(boolean countAllocations) {
+        mCountingAllocations = countAllocations;
+    }
+
+    /**
+     * Starts the trace of a sync.  Debug builds also count the allocations of the whole
+     * process until finish(), since allocation counting slows the runtime down.
+     */
+    @SuppressWarnings("deprecation")
+    public static SyncTrace begin() {
+        SyncTrace trace = new SyncTrace(BuildConfig.DEBUG);
+        if (trace.mCountingAllocations) {
+            Debug.resetGlobalAllocCount();
+            Debug.resetGlobalAllocSize();
+            Debug.startAllocCounting();
+        }
+        return trace;
+    }
+
+    /**
+     * Enters a stage on the calling thread.
+     *
+     * @return the start time, to pass to endStage() on the same thread
+     */
+    public long beginStage(int stage) {
+        TraceCompat.beginSection(STAGE_SECTIONS[stage]);
+        return System.nanoTime();
+    }
+
+    public void endStage(int stage, long startNanos) {
+        addStageNanos(stage, System.nanoTime() - startNanos);
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Adds time spent in a stage that was not timed through beginStage().
+     */
+    public void addStageNanos(int stage, long nanos) {
+        mStageNanos.addAndGet(stage, nanos);
+    }
+
+    /**
+     * Leaves the parse stage.  The parser reads straight off the network, so the time it spent
+     * waiting for the body belongs to STAGE_DOWNLOAD, which addRequest() counts, instead.
+     *
+     * @param readNanos how long the parser's reads spent waiting on the network
+     */
+    public void endParse(long startNanos, long readNanos) {
+        addStageNanos(STAGE_PARSE, System.nanoTime() - startNanos - readNanos);
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Counts a request that went to the network: its connect, first byte and download times
+     * and the size of its body.  Call it once the response is closed.
+     */
+    public void addRequest(SunshineHttpClient.Response response) {
+        mRequests.incrementAndGet();
+        addStageNanos(STAGE_CONNECT, response.getConnectNanos());
+        addStageNanos(STAGE_FIRST_BYTE, response.getFirstByteNanos());
+        addStageNanos(STAGE_DOWNLOAD, response.getReadNanos());
+        mWireBytes.addAndGet(response.getWireBytes());
+        mBodyBytes.addAndGet(response.getBodyBytes());
+    }
+
+    /**
+     * Ends the trace and adds it to the records, dropping the oldest if there are MAX_RECORDS.
+     */
+    @SuppressWarnings("deprecation")
+    public void finish(int locations, int rowsWritten) {
+        mDurationNanos = System.nanoTime() - mStartNanos;
+        mLocations = locations;
+        mRowsWritten = rowsWritten;
+        if (mCountingAllocations) {
+            Debug.stopAllocCounting();
+            mAllocCount = Debug.getGlobalAllocCount();
+            mAllocBytes = Debug.getGlobalAllocSize();
+        }
+        synchronized (sRecords) {
+            mId = sNextRecord++;
+            sRecords[(int) (mId % MAX_RECORDS)] = this;
+        }
+    }
+
+    public long getStageNanos(int stage) {
+        return mStageNanos.get(stage);
+    }
+
+    /**
+     * @return the finished traces, newest first
+     */
+    public static List<SyncTrace> getRecords() {
+        synchronized (sRecords) {
+            int count = (int) Math.min(sNextRecord, MAX_RECORDS);
+            List<SyncTrace> records = new ArrayList<SyncTrace>(count);
+            for (long id = sNextRecord - 1; id >= sNextRecord - count; id--) {
+                records.add(sRecords[(int) (id % MAX_RECORDS)]);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * @return the finished traces as SyncTraceEntry rows, newest first
+     */
+    public static Cursor query() {
+        String[] columns = new String[RECORD_COLUMNS.length + STAGE_COLUMNS.length];
+        System.arraycopy(RECORD_COLUMNS, 0, columns, 0, RECORD_COLUMNS.length);
+        System.arraycopy(STAGE_COLUMNS, 0, columns, RECORD_COLUMNS.length, STAGE_COLUMNS.length);
+
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (SyncTrace trace : getRecords()) {
+            MatrixCursor.RowBuilder row = cursor.newRow()
+                    .add(trace.mId)
+                    .add(trace.mStartedAt)
+                    .add(toMillis(trace.mDurationNanos))
+                    .add(trace.mLocations)
+                    .add(trace.mRowsWritten)
+                    .add(trace.mRequests.get())
+                    .add(trace.mWireBytes.get())
+                    .add(trace.mBodyBytes.get())
+                    .add(trace.mAllocCount)
+                    .add(trace.mAllocBytes);
+            for (int stage = 0; stage < STAGE_COLUMNS.length; stage++) {
+                row.add(toMillis(trace.getStageNanos(stage)));
+            }
+        }
+        return cursor;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}